@@ -0,0 +1,41 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import org.openjdk.jmh.annotations.*;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Cost of creating a session binding and resolving a variable as the number of shared bindings
+ * grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindingBenchmark {
+
+  @Param({"1", "10", "100", "1000"})
+  public int bindings;
+
+  private final SharedBindings shared = new SharedBindings();
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < bindings; i++) {
+      shared.put("variable" + i, i);
+    }
+  }
+
+  @Benchmark
+  public Binding createBinding() {
+    return new LayeredBinding(shared);
+  }
+
+  @Benchmark
+  public Object createBindingAndResolve() {
+    return new LayeredBinding(shared).getVariable("variable0");
+  }
+}
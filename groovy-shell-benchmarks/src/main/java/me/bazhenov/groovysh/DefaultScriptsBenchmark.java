@@ -0,0 +1,56 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Cost of running default scripts for a new client session, both from the compiled script cache
+ * and with recompilation (as happens after the script file is modified).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DefaultScriptsBenchmark {
+
+  private static final String SCRIPT = "def greet(name) { \"Hello, $name\" }\n"
+      + "answer = 42\n"
+      + "names = (1..10).collect { greet(it) }\n";
+
+  private final CompiledScriptCache cache =
+      new CompiledScriptCache(getClass().getClassLoader(), new CompilerConfiguration());
+  private File script;
+
+  @Setup
+  public void setUp() throws IOException {
+    script = File.createTempFile("default", ".groovy");
+    Files.write(script.toPath(), SCRIPT.getBytes(UTF_8));
+  }
+
+  @TearDown
+  public void tearDown() {
+    cache.close();
+    script.delete();
+  }
+
+  @Benchmark
+  public Object cached() throws IOException {
+    return cache.run(script.getPath(), new Binding());
+  }
+
+  @Benchmark
+  public Object recompiled() throws IOException {
+    cache.clear();
+    return cache.run(script.getPath(), new Binding());
+  }
+}
@@ -0,0 +1,41 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.server.StandardEnvironment;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Cost of terminal size lookups, which jline performs on every line read and printed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SshTerminalBenchmark {
+
+  private SshTerminal terminal;
+
+  @Setup
+  public void setUp() throws Exception {
+    StandardEnvironment environment = new StandardEnvironment();
+    environment.set("COLUMNS", "120");
+    environment.set("LINES", "40");
+    SshTerminal.registerEnvironment(environment);
+    terminal = new SshTerminal();
+  }
+
+  @TearDown
+  public void tearDown() {
+    SshTerminal.unregisterEnvironment();
+  }
+
+  @Benchmark
+  public void size(Blackhole blackhole) {
+    blackhole.consume(terminal.getWidth());
+    blackhole.consume(terminal.getHeight());
+  }
+}
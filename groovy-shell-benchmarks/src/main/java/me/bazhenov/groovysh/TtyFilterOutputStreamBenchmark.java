@@ -0,0 +1,88 @@
+package me.bazhenov.groovysh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Throughput of <code>\n</code> to <code>\r\n</code> translation of the shell output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TtyFilterOutputStreamBenchmark {
+
+  /**
+   * Shape of the payload: no line feeds at all, short lines (typical <code>println</code>),
+   * long lines exceeding the translation buffer and line feeds only.
+   */
+  @Param({"binary", "shortLines", "longLines", "lineFeeds"})
+  public String shape;
+
+  @Param({"64", "8192", "65536"})
+  public int size;
+
+  private byte[] payload;
+  private TtyFilterOutputStream stream;
+
+  @Setup
+  public void setUp() {
+    payload = payload(shape, size);
+    OutputLimiter limiter = new OutputLimiter(0, 0, new SessionStats(null, new ShellMetrics()));
+    stream = new TtyFilterOutputStream(new CountingOutputStream(),
+        new AtomicBoolean(true), limiter);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    stream.write(payload, 0, payload.length);
+  }
+
+  private static byte[] payload(String shape, int size) {
+    byte[] result = new byte[size];
+    for (int i = 0; i < size; i++) {
+      switch (shape) {
+        case "binary":
+          result[i] = 'a';
+          break;
+        case "shortLines":
+          result[i] = (byte) (i % 40 == 39 ? '\n' : 'a');
+          break;
+        case "longLines":
+          result[i] = (byte) (i % 10000 == 9999 ? '\n' : 'a');
+          break;
+        case "lineFeeds":
+          result[i] = '\n';
+          break;
+        default:
+          throw new IllegalArgumentException("Wrong payload shape: " + shape);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Downstream of the translation, counts written bytes so writes can't be eliminated.
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    private long written;
+
+    @Override
+    public void write(int b) {
+      written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      written += len;
+    }
+  }
+}
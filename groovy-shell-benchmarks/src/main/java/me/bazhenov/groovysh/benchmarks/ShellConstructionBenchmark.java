@@ -0,0 +1,55 @@
+package me.bazhenov.groovysh.benchmarks;
+
+import me.bazhenov.groovysh.GroovyShellService;
+import org.apache.sshd.client.SshClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static me.bazhenov.groovysh.benchmarks.InMemoryPreferencesFactory.JVM_ARG;
+
+/**
+ * Time to the first prompt of a new client session, which is dominated by building a shell, as
+ * the shell pool is disabled. Import completion is disabled, as classpath scan would dominate the
+ * measurement. Startup of the service itself is measured by {@link StartupBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = JVM_ARG)
+public class ShellConstructionBenchmark {
+
+  private GroovyShellService service;
+  private SshClient client;
+  private int port;
+
+  @Setup
+  public void setUp() throws IOException {
+    port = ShellSessions.freePort();
+    service = new GroovyShellService(port);
+    service.setHost("127.0.0.1");
+    service.setDisableImportCompletions(true);
+    service.start();
+    client = SshClient.setUpDefaultClient();
+    client.start();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.stop();
+    service.destroy();
+  }
+
+  @Benchmark
+  public int construct() throws IOException {
+    return ShellSessions.awaitPrompts(client, port);
+  }
+
+  @Benchmark
+  public int constructAndEvaluate() throws IOException {
+    return ShellSessions.awaitPrompts(client, port, "true");
+  }
+}
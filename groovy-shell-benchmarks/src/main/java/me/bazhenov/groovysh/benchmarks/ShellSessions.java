@@ -0,0 +1,109 @@
+package me.bazhenov.groovysh.benchmarks;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.session.ClientSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Shell sessions opened by benchmarks through a plain SSH client, the way users open them.
+ */
+final class ShellSessions {
+
+  private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001b\\[[0-9;]*[a-zA-Z]");
+  private static final Pattern PROMPT = Pattern.compile("groovy:\\d{3}> ");
+  private static final long TIMEOUT_SECONDS = 60;
+
+  private ShellSessions() {
+  }
+
+  static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Connects to a service, opens a shell and waits for the prompt following the given commands.
+   *
+   * @return number of prompts received
+   */
+  static int awaitPrompts(SshClient client, int port, String... commands) throws IOException {
+    StringBuilder input = new StringBuilder();
+    for (String command : commands) {
+      input.append(command).append('\n');
+    }
+    PromptCounter out = new PromptCounter();
+    try (ClientSession session = client.connect("benchmark", "127.0.0.1", port)
+        .verify(TIMEOUT_SECONDS, SECONDS).getSession()) {
+      session.auth().verify(TIMEOUT_SECONDS, SECONDS);
+      try (ChannelShell channel = session.createShellChannel()) {
+        channel.setPtyType("xterm");
+        channel.setIn(new ByteArrayInputStream(input.toString().getBytes(UTF_8)));
+        channel.setOut(out);
+        channel.setErr(out);
+        channel.open().verify(TIMEOUT_SECONDS, SECONDS);
+        return out.await(commands.length + 1);
+      }
+    }
+  }
+
+  /**
+   * Session output counting shell prompts. Terminal escape sequences are stripped before matching.
+   */
+  private static class PromptCounter extends OutputStream {
+
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public synchronized void write(int b) {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      text.append(new String(b, off, len, UTF_8));
+      notifyAll();
+    }
+
+    synchronized int await(int prompts) throws IOException {
+      long deadline = System.nanoTime() + SECONDS.toNanos(TIMEOUT_SECONDS);
+      try {
+        while (true) {
+          int received = count();
+          if (received >= prompts) {
+            return received;
+          }
+          long left = deadline - System.nanoTime();
+          if (left <= 0) {
+            throw new IOException("Prompt is not received in " + TIMEOUT_SECONDS + "s");
+          }
+          NANOSECONDS.timedWait(this, left);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    private int count() {
+      Matcher matcher = PROMPT.matcher(ANSI_ESCAPE.matcher(text).replaceAll(""));
+      int count = 0;
+      while (matcher.find()) {
+        count++;
+      }
+      return count;
+    }
+  }
+}
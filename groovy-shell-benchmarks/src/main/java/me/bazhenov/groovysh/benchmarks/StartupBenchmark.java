@@ -0,0 +1,60 @@
+package me.bazhenov.groovysh.benchmarks;
+
+import me.bazhenov.groovysh.GroovyShellService;
+import org.apache.sshd.client.SshClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static me.bazhenov.groovysh.benchmarks.InMemoryPreferencesFactory.JVM_ARG;
+
+/**
+ * Startup time of the service with and without deferred initialization: time until
+ * {@link GroovyShellService#start()} returns and until the first client gets a prompt. Startup is
+ * dominated by class loading, so each measurement is taken in a fresh JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = JVM_ARG)
+public class StartupBenchmark {
+
+  @Param({"false", "true"})
+  public boolean deferredInitialization;
+
+  private GroovyShellService service;
+  private SshClient client;
+  private int port;
+
+  @Setup
+  public void setUp() throws IOException {
+    port = ShellSessions.freePort();
+    service = new GroovyShellService(port);
+    service.setHost("127.0.0.1");
+    service.setDisableImportCompletions(true);
+    service.setDeferredInitialization(deferredInitialization);
+    client = SshClient.setUpDefaultClient();
+    client.start();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.stop();
+    service.destroy();
+  }
+
+  @Benchmark
+  public GroovyShellService start() throws IOException {
+    service.start();
+    return service;
+  }
+
+  @Benchmark
+  public int firstPrompt() throws IOException {
+    service.start();
+    return ShellSessions.awaitPrompts(client, port);
+  }
+}
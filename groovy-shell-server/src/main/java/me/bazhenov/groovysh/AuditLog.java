@@ -0,0 +1,311 @@
+package me.bazhenov.groovysh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Audit log of commands evaluated by client sessions, written as JSON lines.
+ * <p>
+ * Shell threads only put records in a lock-free queue. Records are written by a single writer
+ * thread through a buffer, which is flushed when full or once per flush interval. When the file
+ * grows over the size limit it is renamed with a timestamp suffix and a new file is started.
+ * Rotated files are never removed.
+ * <p>
+ * If the file can't be written, records are dropped (and counted as such) until the file is
+ * reopened, which is retried every few seconds.
+ */
+class AuditLog {
+
+  private static final Logger log = LoggerFactory.getLogger(AuditLog.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long BLOCK_PARK_NANOS = MICROSECONDS.toNanos(100);
+  private static final long REOPEN_INTERVAL_NANOS = SECONDS.toNanos(5);
+
+  private final File file;
+  private final long maxFileSize;
+  private final long flushIntervalNanos;
+  private final int queueCapacity;
+  private final AuditOverflowPolicy overflowPolicy;
+  private final ShellMetrics metrics;
+
+  private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queueSize = new AtomicInteger();
+  private final Thread writer;
+  private volatile boolean running = true;
+  private volatile boolean writerParked;
+
+  // Accessed by the writer thread only
+  private OutputStream out;
+  private long fileSize;
+  private long flushedAt = System.nanoTime();
+  private long reopenAt;
+  private long droppedSinceFailure;
+  private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+  /**
+   * @param maxFileSize         size of the file it is rotated at, 0 means no rotation
+   * @param flushIntervalMillis maximum time a record can stay in the buffer
+   * @param queueCapacity       maximum number of records waiting for the writer
+   */
+  AuditLog(File file, long maxFileSize, long flushIntervalMillis, int queueCapacity,
+      AuditOverflowPolicy overflowPolicy, ShellMetrics metrics) throws IOException {
+    this.file = file;
+    this.maxFileSize = maxFileSize;
+    this.flushIntervalNanos = MILLISECONDS.toNanos(flushIntervalMillis);
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = overflowPolicy;
+    this.metrics = metrics;
+    timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    open();
+    writer = new Thread(this::writeRecords, "GroovySh Audit Log Writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Records a command evaluated in a given session. Never blocks unless overflow policy is
+   * {@link AuditOverflowPolicy#BLOCK}.
+   */
+  void commandEvaluated(SessionStats session, String command, long nanos, long outputBytes,
+      boolean aborted) {
+    if (!running) {
+      return;
+    }
+    Record record = new Record(System.currentTimeMillis(), session.getUsername(), session.getId(),
+        session.getRemoteAddress(), command, nanos, outputBytes, aborted);
+    while (queueSize.incrementAndGet() > queueCapacity) {
+      queueSize.decrementAndGet();
+      if (overflowPolicy == AuditOverflowPolicy.DROP || Thread.currentThread().isInterrupted()
+          || !running) {
+        metrics.auditRecordDropped();
+        return;
+      }
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+    }
+    queue.offer(record);
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Stops the writer thread, once all queued records are written and flushed.
+   */
+  void close() {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeRecords() {
+    try {
+      while (running || !queue.isEmpty()) {
+        Record record;
+        boolean written = false;
+        while ((record = queue.poll()) != null) {
+          queueSize.decrementAndGet();
+          write(record);
+          written = true;
+        }
+        long now = System.nanoTime();
+        if (now - flushedAt >= flushIntervalNanos) {
+          flush();
+          flushedAt = now;
+        }
+        if (!written) {
+          writerParked = true;
+          if (queue.isEmpty() && running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+          }
+          writerParked = false;
+        }
+      }
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.warn("Unable to close audit log", e);
+        }
+      }
+    }
+  }
+
+  private void write(Record record) {
+    if (out == null && !reopen()) {
+      dropped();
+      return;
+    }
+    try {
+      byte[] line = record.toJson(timeFormat).getBytes(UTF_8);
+      if (maxFileSize > 0 && fileSize > 0 && fileSize + line.length > maxFileSize) {
+        rotate();
+      }
+      out.write(line);
+      fileSize += line.length;
+    } catch (IOException e) {
+      failed(e);
+      dropped();
+    }
+  }
+
+  private void flush() {
+    if (out != null) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+  }
+
+  private void dropped() {
+    droppedSinceFailure++;
+    metrics.auditRecordDropped();
+  }
+
+  private void failed(IOException e) {
+    log.error("Unable to write audit log, records are dropped until it is reopened", e);
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException closeFailure) {
+        log.debug("Unable to close audit log", closeFailure);
+      }
+      out = null;
+    }
+    reopenAt = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+  }
+
+  private boolean reopen() {
+    if (System.nanoTime() - reopenAt < 0) {
+      return false;
+    }
+    try {
+      open();
+    } catch (IOException e) {
+      log.debug("Unable to reopen audit log", e);
+      reopenAt = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+      return false;
+    }
+    log.warn("Audit log is reopened, {} records were dropped", droppedSinceFailure);
+    droppedSinceFailure = 0;
+    return true;
+  }
+
+  private void open() throws IOException {
+    out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+    fileSize = file.length();
+  }
+
+  private void rotate() throws IOException {
+    OutputStream out = this.out;
+    this.out = null;
+    out.close();
+    SimpleDateFormat suffixFormat = new SimpleDateFormat("yyyyMMdd-HHmmss.SSS");
+    String rotatedPath = file.getPath() + "." + suffixFormat.format(new Date());
+    File rotated = new File(rotatedPath);
+    for (int i = 1; rotated.exists(); i++) {
+      rotated = new File(rotatedPath + "-" + i);
+    }
+    if (!file.renameTo(rotated)) {
+      log.warn("Unable to rotate audit log to {}", rotated);
+    }
+    open();
+  }
+
+  private static class Record {
+
+    private final long time;
+    private final String user;
+    private final long sessionId;
+    private final String remoteAddress;
+    private final String command;
+    private final long nanos;
+    private final long outputBytes;
+    private final boolean aborted;
+
+    Record(long time, String user, long sessionId, String remoteAddress, String command,
+        long nanos, long outputBytes, boolean aborted) {
+      this.time = time;
+      this.user = user;
+      this.sessionId = sessionId;
+      this.remoteAddress = remoteAddress;
+      this.command = command;
+      this.nanos = nanos;
+      this.outputBytes = outputBytes;
+      this.aborted = aborted;
+    }
+
+    String toJson(SimpleDateFormat timeFormat) {
+      StringBuilder json = new StringBuilder(128 + command.length());
+      json.append("{\"time\":\"").append(timeFormat.format(new Date(time))).append('"');
+      json.append(",\"user\":");
+      appendString(json, user);
+      json.append(",\"session\":").append(sessionId);
+      json.append(",\"remoteAddress\":");
+      appendString(json, remoteAddress);
+      json.append(",\"command\":");
+      appendString(json, command);
+      json.append(",\"durationMicros\":").append(NANOSECONDS.toMicros(nanos));
+      json.append(",\"outputBytes\":").append(outputBytes);
+      json.append(",\"aborted\":").append(aborted);
+      return json.append("}\n").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+      if (value == null) {
+        json.append("null");
+        return;
+      }
+      json.append('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '"':
+            json.append("\\\"");
+            break;
+          case '\\':
+            json.append("\\\\");
+            break;
+          case '\n':
+            json.append("\\n");
+            break;
+          case '\r':
+            json.append("\\r");
+            break;
+          case '\t':
+            json.append("\\t");
+            break;
+          default:
+            if (c < 0x20) {
+              json.append(String.format("\\u%04x", (int) c));
+            } else {
+              json.append(c);
+            }
+        }
+      }
+      json.append('"');
+    }
+  }
+}
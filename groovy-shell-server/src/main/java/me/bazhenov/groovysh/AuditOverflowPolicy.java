@@ -0,0 +1,18 @@
+package me.bazhenov.groovysh;
+
+/**
+ * Behavior of the audit log when its writer falls behind and the queue of records is full.
+ */
+public enum AuditOverflowPolicy {
+
+  /**
+   * Record is dropped and accounted in {@link ShellMetrics#getAuditRecordsDropped()}. Shell
+   * threads are never blocked.
+   */
+  DROP,
+
+  /**
+   * Shell thread waits until there is a free space in the queue.
+   */
+  BLOCK
+}
@@ -0,0 +1,146 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.config.keys.AuthorizedKeyEntry;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.config.keys.PublicKeyEntryResolver;
+import org.apache.sshd.server.auth.pubkey.PublickeyAuthenticator;
+import org.apache.sshd.server.session.ServerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * {@link PublickeyAuthenticator} accepting keys listed in an OpenSSH <code>authorized_keys</code>
+ * file.
+ * <p>
+ * The file is parsed once into a map indexed by key fingerprints, so authentication doesn't touch
+ * the disk. The file is checked for modifications every few seconds and reloaded as a whole: a file
+ * which can't be parsed doesn't replace the keys loaded before, while a removed file revokes all
+ * the keys. Key options (like <code>from=</code> or <code>command=</code>) are not supported, so
+ * keys with options are skipped rather than accepted without the restrictions. Any user name is
+ * accepted with an authorized key.
+ */
+class AuthorizedKeysStore implements PublickeyAuthenticator, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(AuthorizedKeysStore.class);
+  private static final long RELOAD_INTERVAL_MILLIS = SECONDS.toMillis(5);
+
+  private final File file;
+  private final ScheduledExecutorService watcher;
+  private volatile Map<String, List<PublicKey>> keys = Collections.emptyMap();
+  private Object loadedVersion;
+
+  /**
+   * @throws IOException if the file can't be read or parsed
+   */
+  AuthorizedKeysStore(File file) throws IOException {
+    this.file = file;
+    reload();
+    watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "GroovySh Authorized Keys Watcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    watcher.scheduleWithFixedDelay(this::reloadIfModified, RELOAD_INTERVAL_MILLIS,
+        RELOAD_INTERVAL_MILLIS, MILLISECONDS);
+  }
+
+  synchronized void reloadIfModified() {
+    try {
+      if (reload()) {
+        log.info("{} authorized keys are loaded from {}", size(), file);
+      }
+    } catch (NoSuchFileException e) {
+      if (loadedVersion != null) {
+        log.warn("Authorized keys file {} is missing, no keys are accepted", file);
+        keys = Collections.emptyMap();
+        loadedVersion = null;
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to reload authorized keys from {}, previously loaded keys are kept", file,
+          e);
+    }
+  }
+
+  /**
+   * Parses the file if it is modified since the last load.
+   *
+   * @return true if the file is parsed, false if it is not modified
+   * @throws NoSuchFileException if the file doesn't exist
+   */
+  private synchronized boolean reload() throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+        BasicFileAttributes.class);
+    // Modification time may have a resolution of a second, so size and inode are checked too
+    List<Object> version = Arrays.asList(attributes.lastModifiedTime(), attributes.size(),
+        attributes.fileKey());
+    if (version.equals(loadedVersion)) {
+      return false;
+    }
+    Map<String, List<PublicKey>> keys = new HashMap<>();
+    for (AuthorizedKeyEntry entry : AuthorizedKeyEntry.readAuthorizedKeys(file.toPath())) {
+      if (!entry.getLoginOptions().isEmpty()) {
+        log.warn("Key with options is skipped, options are not supported: {}",
+            entry.getLoginOptions().keySet());
+        continue;
+      }
+      PublicKey key;
+      try {
+        key = entry.resolvePublicKey(null, PublicKeyEntryResolver.IGNORING);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Wrong key: " + entry, e);
+      }
+      if (key == null) {
+        log.warn("Key of unsupported type is skipped: {}", entry.getKeyType());
+        continue;
+      }
+      keys.computeIfAbsent(KeyUtils.getFingerPrint(key), k -> new ArrayList<>(1)).add(key);
+    }
+    this.keys = keys;
+    loadedVersion = version;
+    return true;
+  }
+
+  @Override
+  public boolean authenticate(String username, PublicKey key, ServerSession session) {
+    List<PublicKey> candidates = keys.get(KeyUtils.getFingerPrint(key));
+    if (candidates != null) {
+      for (PublicKey candidate : candidates) {
+        if (KeyUtils.compareKeys(candidate, key)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return number of loaded keys
+   */
+  int size() {
+    int size = 0;
+    for (List<PublicKey> list : keys.values()) {
+      size += list.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void close() {
+    watcher.shutdownNow();
+  }
+}
@@ -0,0 +1,64 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.Groovysh;
+import org.codehaus.groovy.control.CompilationFailedException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <code>:bg</code> command evaluating a script in background.
+ */
+class BackgroundCommand extends JobCommand {
+
+  BackgroundCommand(Groovysh shell) {
+    super(shell, ":bg", ":&");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Evaluate a script in background";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[script]";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Evaluates a script (or the current buffer, if script is omitted) in background. Job "
+        + "keeps running after the session is closed. Use :jobs to list jobs, :wait to follow "
+        + "the output of a job and :kill to stop it";
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object execute(List<String> args) {
+    JobManager jobManager = getJobManager();
+    ManagedGroovysh shell = (ManagedGroovysh) this.shell;
+    String script;
+    if (args.isEmpty()) {
+      script = String.join("\n", shell.getBuffers().current());
+    } else {
+      script = shell.getCurrentArguments().getRest();
+    }
+    if (script.trim().isEmpty()) {
+      fail("Script is required");
+    }
+    SessionStats stats = shell.getStats();
+    Map<String, Object> variables = shell.getInterp().getContext().getVariables();
+    try {
+      Job job = jobManager.submit(script, shell.getImports(),
+          stats != null ? stats.getUsername() : null, shell.retainClassLoader(), variables);
+      if (args.isEmpty()) {
+        shell.getBuffers().clearSelected();
+      }
+      io.out.println("Job " + job.getId() + " submitted");
+    } catch (CompilationFailedException | RejectedExecutionException e) {
+      fail(e.getMessage());
+    }
+    return null;
+  }
+}
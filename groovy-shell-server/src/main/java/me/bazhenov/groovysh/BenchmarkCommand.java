@@ -0,0 +1,162 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Closure;
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * <code>:bench</code> command measuring the throughput, latency and allocation rate of a closure
+ * with {@link BenchmarkRunner}.
+ */
+class BenchmarkCommand extends CommandSupport {
+
+  private static final long DEFAULT_WARMUP_SECONDS = 1;
+  private static final long DEFAULT_MEASUREMENT_SECONDS = 3;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  BenchmarkCommand(Groovysh shell) {
+    super(shell, ":bench", ":be");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Benchmark a closure";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[-w seconds] [-m seconds] [-t threads] { closure }";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Calls a closure (or an expression) in a loop for -w seconds of warmup ("
+        + DEFAULT_WARMUP_SECONDS + " by default) and -m seconds of measurement ("
+        + DEFAULT_MEASUREMENT_SECONDS + " by default) in -t threads, then prints throughput, "
+        + "latency percentiles and bytes allocated per call. Closure should be thread safe if "
+        + "more than one thread is used. Only one benchmark runs at a time, and its time is "
+        + "limited by the server";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    ManagedGroovysh shell = (ManagedGroovysh) this.shell;
+    BenchmarkRunner runner = shell.getBenchmarkRunner();
+    if (runner == null) {
+      fail("Benchmarks are disabled");
+    }
+    long warmupSeconds = DEFAULT_WARMUP_SECONDS;
+    long measurementSeconds = DEFAULT_MEASUREMENT_SECONDS;
+    int threads = 1;
+
+    CommandArguments arguments = shell.getCurrentArguments();
+    while (arguments.hasOption()) {
+      String option = arguments.next();
+      String value = arguments.next();
+      if (value.isEmpty()) {
+        fail("Value of " + option + " is required");
+      }
+      try {
+        switch (option) {
+          case "-w":
+            warmupSeconds = Long.parseLong(value);
+            break;
+          case "-m":
+            measurementSeconds = Long.parseLong(value);
+            break;
+          case "-t":
+            threads = Integer.parseInt(value);
+            break;
+          default:
+            fail("Unknown option: " + option);
+        }
+      } catch (NumberFormatException e) {
+        fail("Wrong value of " + option + ": " + value);
+      }
+    }
+    String script = arguments.getRest();
+    if (script.isEmpty()) {
+      fail("Closure is required");
+    }
+
+    long warmupMillis = SECONDS.toMillis(warmupSeconds);
+    long measurementMillis = SECONDS.toMillis(measurementSeconds);
+    Closure<?> operation = evaluate(script);
+    BenchmarkRunner.Result result;
+    try {
+      runner.checkSettings(warmupMillis, measurementMillis, threads);
+      io.out.println("Running " + warmupSeconds + "s of warmup and " + measurementSeconds
+          + "s of measurement in " + threads + (threads == 1 ? " thread" : " threads"));
+      io.out.flush();
+      result = runner.run(operation, warmupMillis, measurementMillis, threads);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      fail(e.getMessage());
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fail("Interrupted");
+      return null;
+    }
+    report(result);
+    return null;
+  }
+
+  /**
+   * Evaluates a closure, or wraps the text into a closure if it is not a closure literal.
+   */
+  private Closure<?> evaluate(String script) {
+    List<String> buffer = new ArrayList<>();
+    for (String name : shell.getImports()) {
+      buffer.add("import " + name);
+    }
+    // Standalone closure literal is parsed as a code block, so it is returned explicitly
+    buffer.add(script.startsWith("{") ? "return " + script : "return { " + script + "\n}");
+    Object closure = shell.getInterp().evaluate(buffer);
+    if (!(closure instanceof Closure)) {
+      fail("Closure expected, got: " + closure);
+    }
+    return (Closure<?>) closure;
+  }
+
+  private void report(BenchmarkRunner.Result result) {
+    io.out.println(String.format("%d calls in %.1fs, %.0f ops/s", result.getOperations(),
+        result.getMeasuredNanos() / 1e9, result.getOperationsPerSecond()));
+    if (result.getOperations() > 0) {
+      StringBuilder latency = new StringBuilder("Latency: mean ")
+          .append(formatNanos(result.getMeanNanos()));
+      for (double percentile : PERCENTILES) {
+        latency.append(", p").append(percentile == (long) percentile
+            ? String.valueOf((long) percentile)
+            : String.valueOf(percentile))
+            .append(' ').append(formatNanos(result.getLatencyNanos(percentile)));
+      }
+      latency.append(", max ").append(formatNanos(result.getLatencyNanos(100)));
+      io.out.println(latency);
+    }
+    double allocated = result.getAllocatedBytesPerOperation();
+    if (allocated >= 0) {
+      io.out.println(String.format("Allocated: %.1f bytes/op", allocated));
+    }
+    if (result.getUnfinishedCalls() > 0) {
+      io.err.println("Calls still running after the measurement time are interrupted in "
+          + result.getUnfinishedCalls() + " thread(s)");
+    }
+    io.out.flush();
+  }
+
+  private static String formatNanos(double nanos) {
+    if (nanos < 1e3) {
+      return String.format("%.0fns", nanos);
+    } else if (nanos < 1e6) {
+      return String.format("%.1fus", nanos / 1e3);
+    } else if (nanos < 1e9) {
+      return String.format("%.1fms", nanos / 1e6);
+    }
+    return String.format("%.2fs", nanos / 1e9);
+  }
+}
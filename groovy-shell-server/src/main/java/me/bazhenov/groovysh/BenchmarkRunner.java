@@ -0,0 +1,340 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Closure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Runs micro-benchmarks of <code>:bench</code> command.
+ * <p>
+ * Operation is called in a loop by a number of worker threads: first for the warmup time, so the
+ * code is compiled by JIT, then for the measurement time, when the time of each call and the
+ * memory allocated by the workers are recorded. Only one benchmark runs at a time, and the total
+ * time of a benchmark is limited, so it can't hog the node for long: operation still running when
+ * the time is over is interrupted and then stopped forcibly (where the runtime still supports
+ * {@link Thread#stop()}). Next benchmark can't be started until all the workers are finished.
+ */
+class BenchmarkRunner {
+
+  private static final int WARMUP = 0;
+  private static final int MEASUREMENT = 1;
+  private static final int STOPPED = 2;
+  private static final long STOP_GRACE_PERIOD_MILLIS = 1000;
+  private static final Logger log = LoggerFactory.getLogger(BenchmarkRunner.class);
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  private final long maxTimeMillis;
+  private final int maxThreads;
+  private final Semaphore permit = new Semaphore(1);
+  private final AtomicInteger threadNumber = new AtomicInteger();
+
+  /**
+   * @param maxTimeMillis maximum warmup and measurement time of a benchmark
+   */
+  BenchmarkRunner(long maxTimeMillis) {
+    if (maxTimeMillis <= 0) {
+      throw new IllegalArgumentException("Wrong max benchmark time");
+    }
+    this.maxTimeMillis = maxTimeMillis;
+    this.maxThreads = Runtime.getRuntime().availableProcessors();
+  }
+
+  long getMaxTimeMillis() {
+    return maxTimeMillis;
+  }
+
+  int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * Runs a benchmark. Each worker calls its own clone of the closure.
+   *
+   * @param operation         benchmarked operation
+   * @param warmupMillis      warmup time
+   * @param measurementMillis measurement time
+   * @param threads           number of worker threads
+   * @throws IllegalStateException if another benchmark is running
+   * @throws RuntimeException      thrown by the operation, benchmark is stopped in this case
+   * @throws InterruptedException  if interrupted while waiting, workers are stopped as well
+   */
+  Result run(Closure<?> operation, long warmupMillis, long measurementMillis, int threads)
+      throws InterruptedException {
+    checkSettings(warmupMillis, measurementMillis, threads);
+    if (!permit.tryAcquire()) {
+      throw new IllegalStateException("Another benchmark is running");
+    }
+    Run run = new Run(permit);
+    try {
+      return doRun(run, operation, warmupMillis, measurementMillis, threads);
+    } finally {
+      run.release();
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if benchmark settings exceed the limits
+   */
+  void checkSettings(long warmupMillis, long measurementMillis, int threads) {
+    if (threads <= 0 || threads > maxThreads) {
+      throw new IllegalArgumentException("Wrong number of threads, should be in range 1.."
+          + maxThreads);
+    }
+    if (warmupMillis < 0 || measurementMillis <= 0) {
+      throw new IllegalArgumentException("Wrong benchmark time");
+    }
+    if (warmupMillis + measurementMillis > maxTimeMillis) {
+      throw new IllegalArgumentException("Benchmark can't run longer than " + maxTimeMillis
+          + "ms");
+    }
+  }
+
+  private Result doRun(Run run, Closure<?> operation, long warmupMillis, long measurementMillis,
+      int threads) throws InterruptedException {
+    List<Worker> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker(run, (Closure<?>) operation.clone());
+      worker.setName("GroovySh Benchmark Thread-" + threadNumber.incrementAndGet());
+      worker.setDaemon(true);
+      workers.add(worker);
+    }
+    try {
+      for (Worker worker : workers) {
+        run.retain();
+        try {
+          worker.start();
+        } catch (RuntimeException | Error e) {
+          run.release();
+          throw e;
+        }
+      }
+      long measuredNanos = 0;
+      if (!run.failed.await(warmupMillis, MILLISECONDS)) {
+        long startedAt = System.nanoTime();
+        run.phase = MEASUREMENT;
+        run.failed.await(measurementMillis, MILLISECONDS);
+        measuredNanos = System.nanoTime() - startedAt;
+      }
+      run.phase = STOPPED;
+      long deadline = System.currentTimeMillis() + STOP_GRACE_PERIOD_MILLIS;
+      for (Worker worker : workers) {
+        worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+      Throwable error = run.error.get();
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      }
+      Result result = new Result(threads, measuredNanos);
+      for (Worker worker : workers) {
+        if (worker.isAlive()) {
+          // Operation is still running after the benchmark time is over, its call is not counted
+          result.unfinishedCalls++;
+          continue;
+        }
+        result.latency.add(worker.latency);
+        result.totalNanos += worker.totalNanos;
+        result.operations += worker.operations;
+        if (worker.allocatedBytes < 0) {
+          result.allocatedBytes = -1;
+        } else if (result.allocatedBytes >= 0) {
+          result.allocatedBytes += worker.allocatedBytes;
+        }
+      }
+      return result;
+    } finally {
+      run.phase = STOPPED;
+      stop(workers);
+    }
+  }
+
+  /**
+   * Interrupts workers still running the operation and stops them forcibly if they don't respond
+   * to the interruption within the grace period.
+   */
+  @SuppressWarnings("deprecation")
+  private static void stop(List<Worker> workers) {
+    long deadline = System.currentTimeMillis() + STOP_GRACE_PERIOD_MILLIS;
+    boolean interrupted = false;
+    for (Worker worker : workers) {
+      if (worker.isAlive()) {
+        worker.interrupt();
+      }
+    }
+    for (Worker worker : workers) {
+      try {
+        if (!interrupted) {
+          worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      if (worker.isAlive()) {
+        try {
+          worker.stop();
+        } catch (UnsupportedOperationException e) {
+          log.warn("Benchmark thread '{}' ignores interruption and can not be stopped forcibly",
+              worker.getName());
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return bytes allocated by the current thread, or -1 if allocation counter is not supported
+   */
+  private static long allocatedBytes() {
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+      if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private static class Run {
+
+    private volatile int phase = WARMUP;
+    private final CountDownLatch failed = new CountDownLatch(1);
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final Semaphore permit;
+    /**
+     * The caller and each of the started workers, the permit is released by the last of them
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Run(Semaphore permit) {
+      this.permit = permit;
+    }
+
+    void retain() {
+      references.incrementAndGet();
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        permit.release();
+      }
+    }
+  }
+
+  private static class Worker extends Thread {
+
+    private final Run run;
+    private final Closure<?> operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long operations;
+    private long totalNanos;
+    private long allocatedBytes = -1;
+
+    Worker(Run run, Closure<?> operation) {
+      this.run = run;
+      this.operation = operation;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (run.phase == WARMUP) {
+          operation.call();
+        }
+        long allocatedBefore = allocatedBytes();
+        while (run.phase == MEASUREMENT) {
+          long startedAt = System.nanoTime();
+          operation.call();
+          long time = System.nanoTime() - startedAt;
+          latency.record(time);
+          totalNanos += time;
+          operations++;
+        }
+        long allocatedAfter = allocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+          allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+      } catch (Throwable e) {
+        if (run.phase != STOPPED) {
+          run.error.compareAndSet(null, e);
+          run.failed.countDown();
+        }
+      } finally {
+        run.release();
+      }
+    }
+  }
+
+  static class Result {
+
+    private final int threads;
+    private final long measuredNanos;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long operations;
+    private long totalNanos;
+    private long allocatedBytes;
+    private int unfinishedCalls;
+
+    Result(int threads, long measuredNanos) {
+      this.threads = threads;
+      this.measuredNanos = measuredNanos;
+    }
+
+    int getThreads() {
+      return threads;
+    }
+
+    long getOperations() {
+      return operations;
+    }
+
+    long getMeasuredNanos() {
+      return measuredNanos;
+    }
+
+    double getOperationsPerSecond() {
+      return operations * 1e9 / Math.max(measuredNanos, 1);
+    }
+
+    double getMeanNanos() {
+      return operations > 0 ? (double) totalNanos / operations : 0;
+    }
+
+    /**
+     * @see LatencyHistogram#getValueAtPercentile(double)
+     */
+    long getLatencyNanos(double percentile) {
+      return latency.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return bytes allocated per operation, or -1 if allocation counters are not supported
+     */
+    double getAllocatedBytesPerOperation() {
+      if (allocatedBytes < 0 || operations == 0) {
+        return -1;
+      }
+      return (double) allocatedBytes / operations;
+    }
+
+    /**
+     * @return number of calls still running when the benchmark is over
+     */
+    int getUnfinishedCalls() {
+      return unfinishedCalls;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassCodeExpressionTransformer;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.DynamicVariable;
+import org.codehaus.groovy.ast.expr.*;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.syntax.Token;
+import org.codehaus.groovy.syntax.TokenUtil;
+import org.codehaus.groovy.syntax.Types;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.codehaus.groovy.ast.tools.GeneralUtils.*;
+
+/**
+ * Customizer rewriting references to the variables of the session binding in a form which can be
+ * type checked and statically compiled, used by {@link CompileMode#TYPED} and
+ * {@link CompileMode#STATIC} modes.
+ * <p>
+ * Reads of a binding variable are cast to the class of its current value, assignments go through
+ * {@link #assign(Script, String, Object)}, and closures of the binding are called with
+ * {@link Closure#call(Object...)}. Variables assigned in the code are typed with the class of the
+ * assigned expression where it is evident (literals, casts and constructor calls), and read as
+ * {@link Object} if it is not or if it differs from the class of the current value. References the
+ * binding doesn't resolve are left as is, so the code fails to compile.
+ */
+public class BindingVariablesCustomizer extends CompilationCustomizer {
+
+  private static final ClassNode TYPE = ClassHelper.make(BindingVariablesCustomizer.class);
+
+  private final Binding binding;
+
+  BindingVariablesCustomizer(Binding binding) {
+    super(CompilePhase.CANONICALIZATION);
+    this.binding = binding;
+  }
+
+  /**
+   * Assigns a variable of the script binding. Not intended to be used directly.
+   *
+   * @return assigned value
+   */
+  public static <T> T assign(Script script, String name, T value) {
+    script.setProperty(name, value);
+    return value;
+  }
+
+  @Override
+  public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+    // Only the script itself sees the binding, classes declared in the shell don't
+    if (classNode.isScript()) {
+      new Transformer(source, assignedTypes(source, classNode)).visitClass(classNode);
+    }
+  }
+
+  private class Transformer extends ClassCodeExpressionTransformer {
+
+    private final SourceUnit source;
+    private final Map<String, ClassNode> assignedTypes;
+
+    Transformer(SourceUnit source, Map<String, ClassNode> assignedTypes) {
+      this.source = source;
+      this.assignedTypes = assignedTypes;
+    }
+
+    @Override
+    protected SourceUnit getSourceUnit() {
+      return source;
+    }
+
+    @Override
+    public Expression transform(Expression expression) {
+      Expression result = rewrite(expression);
+      if (result != expression) {
+        setSourcePosition(result, expression);
+        return result;
+      }
+      if (expression instanceof ClosureExpression) {
+        ((ClosureExpression) expression).getCode().visit(this);
+        return expression;
+      }
+      if (expression instanceof PrefixExpression || expression instanceof PostfixExpression) {
+        // Increments of binding variables can't be rewritten as a single expression
+        return expression;
+      }
+      return super.transform(expression);
+    }
+
+    private Expression rewrite(Expression expression) {
+      if (isBindingVariable(expression)) {
+        return read(((VariableExpression) expression).getName());
+      }
+      if (expression instanceof BinaryExpression) {
+        BinaryExpression binary = (BinaryExpression) expression;
+        Token operation = binary.getOperation();
+        if (!Types.isAssignment(operation.getType()) || !isDynamic(binary.getLeftExpression())) {
+          return expression;
+        }
+        String name = ((VariableExpression) binary.getLeftExpression()).getName();
+        Expression value = transform(binary.getRightExpression());
+        if (operation.getType() != Types.ASSIGN) {
+          if (!binding.hasVariable(name)) {
+            return expression;
+          }
+          Expression read = read(name);
+          setSourcePosition(read, binary.getLeftExpression());
+          value = new BinaryExpression(read, Token.newSymbol(
+              TokenUtil.removeAssignment(operation.getType()), operation.getStartLine(),
+              operation.getStartColumn()), value);
+          // Type checker ignores errors of expressions without a position in the source
+          setSourcePosition(value, binary);
+        }
+        return callX(TYPE, "assign", args(varX("this"), constX(name), value));
+      }
+      if (expression instanceof MethodCallExpression) {
+        MethodCallExpression call = (MethodCallExpression) expression;
+        String name = call.getMethodAsString();
+        if (call.isImplicitThis() && name != null && binding.hasVariable(name)
+            && binding.getVariable(name) instanceof Closure && !assignedTypes.containsKey(name)) {
+          return callX(castX(ClassHelper.CLOSURE_TYPE, callThisX("getProperty", constX(name))),
+              "call", transform(call.getArguments()));
+        }
+      }
+      return expression;
+    }
+
+    private Expression read(String name) {
+      Expression read = callThisX("getProperty", constX(name));
+      Object value = binding.hasVariable(name) ? binding.getVariable(name) : null;
+      ClassNode type = value != null ? ClassHelper.make(publicTypeOf(value.getClass())) : null;
+      ClassNode assignedType = assignedTypes.get(name);
+      if (assignedType != null) {
+        type = type == null || type.equals(assignedType) ? assignedType : ClassHelper.OBJECT_TYPE;
+      }
+      return type != null && !type.equals(ClassHelper.OBJECT_TYPE) ? castX(type, read) : read;
+    }
+
+    private boolean isBindingVariable(Expression expression) {
+      if (!isDynamic(expression)) {
+        return false;
+      }
+      String name = ((VariableExpression) expression).getName();
+      return binding.hasVariable(name) || assignedTypes.containsKey(name);
+    }
+  }
+
+  /**
+   * @return types of the values assigned to the variables not declared in the code, {@link Object}
+   * if the type is not evident or values of different types are assigned
+   */
+  private static Map<String, ClassNode> assignedTypes(SourceUnit source, ClassNode classNode) {
+    Map<String, ClassNode> types = new HashMap<>();
+    new ClassCodeVisitorSupport() {
+
+      @Override
+      protected SourceUnit getSourceUnit() {
+        return source;
+      }
+
+      @Override
+      public void visitBinaryExpression(BinaryExpression expression) {
+        super.visitBinaryExpression(expression);
+        Token operation = expression.getOperation();
+        if (Types.isAssignment(operation.getType()) && isDynamic(expression.getLeftExpression())) {
+          String name = ((VariableExpression) expression.getLeftExpression()).getName();
+          ClassNode type = operation.getType() == Types.ASSIGN
+              ? typeOf(expression.getRightExpression())
+              : ClassHelper.OBJECT_TYPE;
+          if (type != null) {
+            types.merge(name, type, (a, b) -> a.equals(b) ? a : ClassHelper.OBJECT_TYPE);
+          }
+        }
+      }
+    }.visitClass(classNode);
+    return types;
+  }
+
+  /**
+   * @return type of the value of an expression, {@link Object} if it is not evident, or null if
+   * the value is null
+   */
+  private static ClassNode typeOf(Expression expression) {
+    if (expression instanceof ConstantExpression) {
+      Object value = ((ConstantExpression) expression).getValue();
+      return value != null ? ClassHelper.make(value.getClass()) : null;
+    }
+    if (expression instanceof ListExpression) {
+      return ClassHelper.make(ArrayList.class);
+    }
+    if (expression instanceof MapExpression) {
+      return ClassHelper.make(LinkedHashMap.class);
+    }
+    if (expression instanceof CastExpression || expression instanceof ConstructorCallExpression) {
+      return ClassHelper.getWrapper(expression.getType());
+    }
+    return ClassHelper.OBJECT_TYPE;
+  }
+
+  /**
+   * @return true if an expression is a variable not declared in the code
+   */
+  private static boolean isDynamic(Expression expression) {
+    return expression instanceof VariableExpression
+        && ((VariableExpression) expression).getAccessedVariable() instanceof DynamicVariable;
+  }
+
+  /**
+   * @return the most specific public class or interface of a given class, as code can't refer to
+   * non-public classes
+   */
+  private static Class<?> publicTypeOf(Class<?> type) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      if (Modifier.isPublic(c.getModifiers())) {
+        return c;
+      }
+      for (Class<?> i : c.getInterfaces()) {
+        if (Modifier.isPublic(i.getModifiers())) {
+          return i;
+        }
+      }
+    }
+    return Object.class;
+  }
+}
@@ -0,0 +1,222 @@
+package me.bazhenov.groovysh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Session executor which runs each session in its own thread and limits the number of concurrently
+ * running sessions.
+ * <p>
+ * When limit is reached new sessions are queued (up to a given queue size) and started as soon as
+ * running sessions finish. Sessions which do not fit into the queue are rejected. If virtual
+ * threads are requested and supported by the runtime (Java 21+), sessions are run on virtual
+ * threads, otherwise on platform threads.
+ */
+public class BoundedSessionExecutor implements SessionExecutor {
+
+  private static final Logger log = LoggerFactory.getLogger(BoundedSessionExecutor.class);
+
+  private final int maxSessions;
+  private final int maxQueuedSessions;
+  private final boolean virtualThreads;
+  private final Queue<SessionTask> queue = new ArrayDeque<>();
+  private int running = 0;
+  private boolean shutdown = false;
+
+  /**
+   * @param maxSessions       maximum number of concurrently running sessions, 0 means unlimited
+   * @param maxQueuedSessions maximum number of sessions waiting for a free slot
+   * @param virtualThreads    should sessions be run on virtual threads if runtime supports them
+   */
+  public BoundedSessionExecutor(int maxSessions, int maxQueuedSessions, boolean virtualThreads) {
+    if (maxSessions < 0) {
+      throw new IllegalArgumentException("Wrong max sessions number");
+    }
+    if (maxQueuedSessions < 0) {
+      throw new IllegalArgumentException("Wrong max queued sessions number");
+    }
+    this.maxSessions = maxSessions;
+    this.maxQueuedSessions = maxQueuedSessions;
+    this.virtualThreads = virtualThreads && VirtualThreads.isSupported();
+    if (virtualThreads && !this.virtualThreads) {
+      log.warn("Virtual threads are not supported by runtime, using platform threads");
+    }
+  }
+
+  @Override
+  public Handle execute(Runnable session, String name) {
+    SessionTask task = new SessionTask(session, name);
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("Service is shutting down");
+      }
+      if (maxSessions > 0 && running >= maxSessions) {
+        if (queue.size() >= maxQueuedSessions) {
+          throw new RejectedExecutionException(
+              "Too many active sessions (" + running + "), try again later");
+        }
+        queue.add(task);
+        return task;
+      }
+      running++;
+    }
+    try {
+      task.start();
+    } catch (RuntimeException | Error e) {
+      // Sessions are queued only when all slots are taken, so there is nobody to hand the slot to
+      synchronized (this) {
+        running--;
+      }
+      throw new RejectedExecutionException("Unable to start session thread", e);
+    }
+    return task;
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    queue.clear();
+  }
+
+  private void finished() {
+    SessionTask next;
+    synchronized (this) {
+      next = queue.poll();
+      if (next == null) {
+        running--;
+        return;
+      }
+    }
+    try {
+      next.start();
+    } catch (RuntimeException | Error e) {
+      // Queued session has to be run (and exited) anyway, the finishing thread is free for it
+      log.warn("Unable to start session thread, running {} in {}", next.name,
+          Thread.currentThread().getName(), e);
+      next.runInCurrentThread();
+    }
+  }
+
+  private synchronized boolean cancel(SessionTask task) {
+    return queue.remove(task);
+  }
+
+  private Thread newThread(Runnable r, String name) {
+    return virtualThreads
+        ? VirtualThreads.newThread(r, name)
+        : new Thread(r, name);
+  }
+
+  private class SessionTask implements Handle, Runnable {
+
+    private final Runnable session;
+    private final String name;
+    private volatile Thread thread;
+
+    SessionTask(Runnable session, String name) {
+      this.session = session;
+      this.name = name;
+    }
+
+    void start() {
+      Thread thread = newThread(this, name);
+      this.thread = thread;
+      thread.start();
+    }
+
+    void runInCurrentThread() {
+      Thread current = Thread.currentThread();
+      String currentName = current.getName();
+      thread = current;
+      current.setName(name);
+      try {
+        run();
+      } finally {
+        current.setName(currentName);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        session.run();
+      } finally {
+        finished();
+      }
+    }
+
+    @Override
+    public void interrupt() {
+      if (!cancel(this)) {
+        Thread thread = this.thread;
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+
+    @Override
+    public boolean isQueued() {
+      return thread == null;
+    }
+  }
+
+  /**
+   * Virtual threads are accessed reflectively, so the library still can be used on Java 8.
+   */
+  private static class VirtualThreads {
+
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method unstarted;
+
+    private static final boolean supported;
+
+    static {
+      Method ofVirtualMethod = null, nameMethod = null, unstartedMethod = null;
+      try {
+        Class<?> builder = Class.forName("java.lang.Thread$Builder");
+        ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+        nameMethod = builder.getMethod("name", String.class);
+        unstartedMethod = builder.getMethod("unstarted", Runnable.class);
+      } catch (ReflectiveOperationException e) {
+        // Virtual threads are not supported
+      }
+      ofVirtual = ofVirtualMethod;
+      name = nameMethod;
+      unstarted = unstartedMethod;
+      supported = ofVirtual != null && probe();
+    }
+
+    /**
+     * Java 19 and 20 have virtual threads API, but it throws unless preview features are enabled.
+     */
+    private static boolean probe() {
+      try {
+        newThread(() -> {
+        }, "GroovySh Virtual Thread Probe");
+        return true;
+      } catch (IllegalStateException e) {
+        return false;
+      }
+    }
+
+    static boolean isSupported() {
+      return supported;
+    }
+
+    static Thread newThread(Runnable r, String threadName) {
+      try {
+        Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+        return (Thread) unstarted.invoke(builder, r);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        throw new IllegalStateException("Unable to create virtual thread", e);
+      }
+    }
+  }
+}
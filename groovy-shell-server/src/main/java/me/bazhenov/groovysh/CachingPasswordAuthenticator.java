@@ -0,0 +1,112 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.server.auth.AsyncAuthException;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.auth.password.PasswordChangeRequiredException;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * {@link PasswordAuthenticator} remembering successful password checks of another authenticator
+ * for a given time.
+ * <p>
+ * Useful when the authenticator is slow or depends on an external service (like LDAP): repeated
+ * logins of a user don't call it until the cached check expires. Only a salted digest of the
+ * password is kept. Failed checks are not cached, and a changed password keeps being accepted
+ * until the cached check expires.
+ */
+class CachingPasswordAuthenticator implements PasswordAuthenticator {
+
+  private static final int MAX_ENTRIES = 10_000;
+
+  private final PasswordAuthenticator delegate;
+  private final long ttlNanos;
+  private final byte[] salt = new byte[16];
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * @param ttl time successful check is cached for in milliseconds
+   */
+  CachingPasswordAuthenticator(PasswordAuthenticator delegate, long ttl) {
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("Wrong password cache TTL");
+    }
+    this.delegate = delegate;
+    this.ttlNanos = MILLISECONDS.toNanos(ttl);
+    new SecureRandom().nextBytes(salt);
+  }
+
+  @Override
+  public boolean authenticate(String username, String password, ServerSession session)
+      throws PasswordChangeRequiredException, AsyncAuthException {
+    byte[] digest = digest(username, password);
+    long now = System.nanoTime();
+    Entry entry = entries.get(username);
+    if (entry != null && !entry.isExpired(now) && MessageDigest.isEqual(entry.digest, digest)) {
+      return true;
+    }
+    boolean authenticated = delegate.authenticate(username, password, session);
+    if (authenticated) {
+      if (entries.size() >= MAX_ENTRIES) {
+        evictExpired(now);
+      }
+      if (entries.size() < MAX_ENTRIES || entries.containsKey(username)) {
+        entries.put(username, new Entry(digest, now + ttlNanos));
+      }
+    }
+    return authenticated;
+  }
+
+  @Override
+  public boolean handleClientPasswordChangeRequest(ServerSession session, String username,
+      String oldPassword, String newPassword) {
+    entries.remove(username);
+    return delegate.handleClientPasswordChangeRequest(session, username, oldPassword,
+        newPassword);
+  }
+
+  private void evictExpired(long now) {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      if (it.next().isExpired(now)) {
+        it.remove();
+      }
+    }
+  }
+
+  private byte[] digest(String username, String password) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(salt);
+      digest.update(username.getBytes(UTF_8));
+      digest.update((byte) 0);
+      return digest.digest(password.getBytes(UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Entry {
+
+    private final byte[] digest;
+    private final long expiresAt;
+
+    Entry(byte[] digest, long expiresAt) {
+      this.digest = digest;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return now - expiresAt >= 0;
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package me.bazhenov.groovysh;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.binarySearch;
+
+/**
+ * Sorted index of top level classes available on the classpath, used for import completion.
+ * <p>
+ * Index is built by scanning classpath entries of a class loader (directories, jars, jars nested
+ * in uber-jars) and runtime image of the JVM. Index is persisted along with a fingerprint of the
+ * classpath (paths, sizes and modification times of the jars), so it is rebuilt only when the
+ * classpath changes.
+ */
+final class ClassIndex {
+
+  private static final String[] CLASS_ROOTS = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+
+  private final String[] names;
+
+  private ClassIndex(String[] names) {
+    this.names = names;
+  }
+
+  /**
+   * Loads index from a given file, or builds and saves it if file is missing or was built for
+   * another classpath.
+   */
+  static ClassIndex loadOrBuild(File file, ClassLoader classLoader) throws IOException {
+    List<File> classpath = classpathOf(classLoader);
+    String fingerprint = fingerprint(classpath);
+    ClassIndex index = file.isFile() ? load(file, fingerprint) : null;
+    if (index == null) {
+      index = build(classpath);
+      index.save(file, fingerprint);
+    }
+    return index;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * @param packageName package name, empty string for the root package
+   * @return simple names of classes and subpackages of a given package
+   */
+  Set<String> getContents(String packageName) {
+    String prefix = packageName.isEmpty() ? "" : packageName + ".";
+    Set<String> result = new TreeSet<>();
+    int i = lowerBound(prefix);
+    while (i < names.length && names[i].startsWith(prefix)) {
+      String name = names[i];
+      int dot = name.indexOf('.', prefix.length());
+      if (dot < 0) {
+        result.add(name.substring(prefix.length()));
+        i++;
+      } else {
+        result.add(name.substring(prefix.length(), dot));
+        // Skipping the rest of subpackage, '/' follows '.' in ASCII
+        i = lowerBound(name.substring(0, dot) + "/");
+      }
+    }
+    return result;
+  }
+
+  private int lowerBound(String key) {
+    int i = binarySearch(names, key);
+    return i >= 0 ? i : -i - 1;
+  }
+
+  private static ClassIndex load(File file, String fingerprint) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(file)), UTF_8))) {
+      if (!fingerprint.equals(reader.readLine())) {
+        return null;
+      }
+      int size = Integer.parseInt(reader.readLine());
+      String[] names = new String[size];
+      for (int i = 0; i < size; i++) {
+        if ((names[i] = reader.readLine()) == null) {
+          return null;
+        }
+      }
+      return new ClassIndex(names);
+    } catch (NumberFormatException | EOFException e) {
+      return null;
+    }
+  }
+
+  private void save(File file, String fingerprint) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new GZIPOutputStream(new FileOutputStream(tmp)), UTF_8))) {
+      writer.write(fingerprint + "\n");
+      writer.write(names.length + "\n");
+      for (String name : names) {
+        writer.write(name);
+        writer.write('\n');
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static ClassIndex build(List<File> classpath) throws IOException {
+    Set<String> names = new HashSet<>();
+    for (File entry : classpath) {
+      if (entry.isDirectory()) {
+        scanDirectory(entry.toPath(), names);
+      } else if (entry.isFile()) {
+        scanJar(entry, names);
+      }
+    }
+    scanRuntimeImage(names);
+    String[] sorted = names.toArray(new String[0]);
+    Arrays.sort(sorted);
+    return new ClassIndex(sorted);
+  }
+
+  private static void scanDirectory(Path root, Set<String> names) throws IOException {
+    try (Stream<Path> files = Files.walk(root)) {
+      files.forEach(path -> addClass(root.relativize(path).toString()
+          .replace(File.separatorChar, '/'), names));
+    }
+  }
+
+  private static void scanJar(File file, Set<String> names) throws IOException {
+    try (JarFile jar = new JarFile(file)) {
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".jar")) {
+          try (InputStream in = jar.getInputStream(entry)) {
+            scanNestedJar(in, names);
+          }
+        } else {
+          addClass(entry.getName(), names);
+        }
+      }
+    }
+  }
+
+  private static void scanNestedJar(InputStream in, Set<String> names) throws IOException {
+    JarInputStream jar = new JarInputStream(in);
+    JarEntry entry;
+    while ((entry = jar.getNextJarEntry()) != null) {
+      addClass(entry.getName(), names);
+    }
+  }
+
+  /**
+   * Scans modules of the JVM runtime image (Java 9+). On Java 8 runtime classes are scanned as a
+   * part of the boot classpath.
+   */
+  private static void scanRuntimeImage(Set<String> names) throws IOException {
+    FileSystem jrt;
+    try {
+      jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+    } catch (ProviderNotFoundException | FileSystemNotFoundException e) {
+      return;
+    }
+    Path modules = jrt.getPath("/modules");
+    try (Stream<Path> files = Files.walk(modules)) {
+      files.filter(path -> path.getNameCount() > 2)
+          .forEach(path -> addClass(path.subpath(2, path.getNameCount()).toString(), names));
+    }
+  }
+
+  private static void addClass(String path, Set<String> names) {
+    if (!path.endsWith(".class") || path.startsWith("META-INF/") || path.indexOf('$') >= 0) {
+      return;
+    }
+    for (String root : CLASS_ROOTS) {
+      if (path.startsWith(root)) {
+        path = path.substring(root.length());
+        break;
+      }
+    }
+    String name = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    if (!name.endsWith("package-info") && !name.endsWith("module-info")) {
+      names.add(name);
+    }
+  }
+
+  private static List<File> classpathOf(ClassLoader classLoader) {
+    Set<File> entries = new LinkedHashSet<>();
+    for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+          File file = toFile(url);
+          if (file != null) {
+            entries.add(file);
+          }
+        }
+      }
+    }
+    for (String property : new String[]{"java.class.path", "sun.boot.class.path"}) {
+      String path = System.getProperty(property);
+      if (path != null) {
+        for (String entry : path.split(File.pathSeparator)) {
+          if (!entry.isEmpty()) {
+            entries.add(new File(entry).getAbsoluteFile());
+          }
+        }
+      }
+    }
+    return new ArrayList<>(entries);
+  }
+
+  /**
+   * @return file backing a given classpath URL. For nested jar URLs (e.g.
+   * <code>jar:file:/app.jar!/BOOT-INF/lib/lib.jar!/</code>) the outermost jar is returned
+   */
+  private static File toFile(URL url) {
+    try {
+      if ("file".equals(url.getProtocol())) {
+        return new File(url.toURI()).getAbsoluteFile();
+      }
+      if ("jar".equals(url.getProtocol())) {
+        String path = url.getPath();
+        int separator = path.indexOf("!/");
+        return toFile(new URL(separator >= 0 ? path.substring(0, separator) : path));
+      }
+    } catch (URISyntaxException | IOException | IllegalArgumentException e) {
+      // Not a local file
+    }
+    return null;
+  }
+
+  private static String fingerprint(List<File> classpath) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      update(digest, System.getProperty("java.home"));
+      update(digest, System.getProperty("java.version"));
+      for (File entry : classpath) {
+        // Modification time of a directory doesn't reflect changes of nested files, so directories
+        // are identified by path only
+        update(digest, entry.isDirectory()
+            ? entry.getPath()
+            : entry.getPath() + ":" + entry.length() + ":" + entry.lastModified());
+      }
+      StringBuilder result = new StringBuilder();
+      for (byte b : digest.digest()) {
+        result.append(String.format("%02x", b));
+      }
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(String.valueOf(value).getBytes(UTF_8));
+    digest.update((byte) 0);
+  }
+}
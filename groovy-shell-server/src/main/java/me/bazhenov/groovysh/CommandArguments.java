@@ -0,0 +1,51 @@
+package me.bazhenov.groovysh;
+
+/**
+ * Arguments of a shell command read from the original command line word by word.
+ * <p>
+ * Groovysh gives commands arguments with quotes removed, so commands taking a script (or a
+ * closure) read it from the line as is. Options (words starting with <code>-</code>) should
+ * precede the script.
+ */
+final class CommandArguments {
+
+  private String rest;
+
+  /**
+   * @param line command line, including the command name
+   */
+  CommandArguments(String line) {
+    rest = split(line)[1];
+  }
+
+  /**
+   * @return true if the next word is an option
+   */
+  boolean hasOption() {
+    return rest.startsWith("-");
+  }
+
+  /**
+   * @return next word, or an empty string if there are no more words
+   */
+  String next() {
+    String[] parts = split(rest);
+    rest = parts[1];
+    return parts[0];
+  }
+
+  /**
+   * @return the rest of the line, trimmed
+   */
+  String getRest() {
+    return rest;
+  }
+
+  /**
+   * @return first word of a given text and the rest of the text
+   */
+  private static String[] split(String text) {
+    String[] parts = text.trim().split("\\s+", 2);
+    return new String[]{parts[0], parts.length > 1 ? parts[1] : ""};
+  }
+}
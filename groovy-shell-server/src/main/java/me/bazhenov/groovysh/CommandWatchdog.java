@@ -0,0 +1,182 @@
+package me.bazhenov.groovysh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Enforces wall-clock and CPU time budgets on commands evaluated in the shell.
+ * <p>
+ * All commands are watched by a single shared scheduler thread which periodically checks running
+ * commands. When a command exceeds its budget, its thread is interrupted first (evaluated code is
+ * compiled with {@link groovy.transform.ThreadInterrupt}, so loops in the shell code respond to
+ * interruption). If the command is still running after the grace period, the thread is stopped
+ * forcibly (where the runtime still supports {@link Thread#stop()}).
+ */
+class CommandWatchdog {
+
+  private static final Logger log = LoggerFactory.getLogger(CommandWatchdog.class);
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  private final long wallBudgetNanos;
+  private final long cpuBudgetNanos;
+  private final long gracePeriodNanos;
+  private final ShellMetrics metrics;
+  private final Map<Watch, Boolean> watches = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * @param wallBudgetMillis  wall-clock budget of a command, 0 means no limit
+   * @param cpuBudgetMillis   CPU time budget of a command, 0 means no limit
+   * @param gracePeriodMillis time given to an interrupted command before it is stopped forcibly
+   */
+  CommandWatchdog(long wallBudgetMillis, long cpuBudgetMillis, long gracePeriodMillis,
+      ShellMetrics metrics) {
+    this.wallBudgetNanos = MILLISECONDS.toNanos(wallBudgetMillis);
+    this.cpuBudgetNanos = threadMXBean.isThreadCpuTimeSupported()
+        ? MILLISECONDS.toNanos(cpuBudgetMillis)
+        : 0;
+    this.gracePeriodNanos = MILLISECONDS.toNanos(gracePeriodMillis);
+    this.metrics = metrics;
+    if (cpuBudgetMillis > 0 && cpuBudgetNanos == 0) {
+      log.warn("Thread CPU time is not supported by JVM, CPU budget is ignored");
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "GroovySh Command Watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = checkPeriodMillis(wallBudgetMillis, cpuBudgetMillis, gracePeriodMillis);
+    scheduler.scheduleAtFixedRate(this::check, period, period, MILLISECONDS);
+  }
+
+  private static long checkPeriodMillis(long... budgets) {
+    long min = Long.MAX_VALUE;
+    for (long budget : budgets) {
+      if (budget > 0) {
+        min = Math.min(min, budget);
+      }
+    }
+    return Math.max(10, Math.min(min / 10, 500));
+  }
+
+  /**
+   * Starts watching a command evaluated by the current thread.
+   */
+  Watch watch() {
+    Thread thread = Thread.currentThread();
+    long cpuTime = cpuBudgetNanos > 0 ? threadMXBean.getCurrentThreadCpuTime() : -1;
+    Watch watch = new Watch(thread, System.nanoTime(), cpuTime);
+    watches.put(watch, Boolean.TRUE);
+    return watch;
+  }
+
+  void shutdown() {
+    scheduler.shutdownNow();
+    watches.clear();
+  }
+
+  private void check() {
+    long now = System.nanoTime();
+    for (Watch watch : watches.keySet()) {
+      try {
+        watch.check(now);
+      } catch (RuntimeException e) {
+        log.warn("Unable to check command", e);
+      }
+    }
+  }
+
+  class Watch {
+
+    private final Thread thread;
+    private final long startedAt;
+    private final long startCpuTime;
+    private volatile String violation;
+    private volatile long interruptedAt;
+    private volatile boolean aborted;
+    private boolean finished;
+
+    Watch(Thread thread, long startedAt, long startCpuTime) {
+      this.thread = thread;
+      this.startedAt = startedAt;
+      this.startCpuTime = startCpuTime;
+    }
+
+    /**
+     * Stops watching the command.
+     *
+     * @return description of the budget violation, or null if command completed within budgets
+     */
+    String done() {
+      watches.remove(this);
+      try {
+        finish();
+      } catch (ThreadDeath e) {
+        // Stop is delivered asynchronously, so it may hit the thread which has already completed
+        // the command and is waiting for the watch monitor here
+        finish();
+      }
+      return violation;
+    }
+
+    private synchronized void finish() {
+      if (!finished) {
+        finished = true;
+        if (violation != null) {
+          // Clearing interruption flag, so session can read next command
+          Thread.interrupted();
+          metrics.commandAborted();
+        }
+      }
+    }
+
+    private synchronized void check(long now) {
+      if (finished) {
+        return;
+      }
+      if (violation == null) {
+        if (wallBudgetNanos > 0 && now - startedAt > wallBudgetNanos) {
+          interrupt("wall-clock budget of " + NANOSECONDS.toMillis(wallBudgetNanos) + "ms", now);
+        } else if (cpuBudgetNanos > 0 && startCpuTime >= 0) {
+          long cpuTime = threadMXBean.getThreadCpuTime(thread.getId());
+          if (cpuTime >= 0 && cpuTime - startCpuTime > cpuBudgetNanos) {
+            interrupt("CPU time budget of " + NANOSECONDS.toMillis(cpuBudgetNanos) + "ms", now);
+          }
+        }
+      } else if (!aborted && now - interruptedAt > gracePeriodNanos) {
+        abort();
+      }
+    }
+
+    private void interrupt(String violation, long now) {
+      this.violation = violation;
+      this.interruptedAt = now;
+      thread.interrupt();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void abort() {
+      aborted = true;
+      try {
+        thread.stop();
+      } catch (UnsupportedOperationException e) {
+        log.warn("Command in thread '{}' exceeded {} and can not be stopped forcibly",
+            thread.getName(), violation);
+      }
+    }
+
+    boolean isAborted() {
+      return aborted;
+    }
+  }
+}
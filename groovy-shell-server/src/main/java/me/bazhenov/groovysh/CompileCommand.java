@@ -0,0 +1,57 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.List;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * <code>:compile</code> command switching {@link CompileMode} of the session.
+ */
+class CompileCommand extends CommandSupport {
+
+  CompileCommand(Groovysh shell) {
+    super(shell, ":compile", ":co");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Set compilation mode of the session";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[static|typed|dynamic]";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Compiles evaluated code with @CompileStatic (static) or @TypeChecked (typed), which "
+        + "is much faster for loops over large amounts of data. Variables of the session are "
+        + "typed with the classes of their current values, so hot loops should use local "
+        + "variables. Code which fails to compile in these modes is evaluated dynamically. Prints "
+        + "the current mode if no mode is given";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    ManagedGroovysh shell = (ManagedGroovysh) this.shell;
+    if (args.size() > 1) {
+      fail("Only one mode is expected");
+    }
+    if (!args.isEmpty()) {
+      CompileMode mode;
+      try {
+        mode = CompileMode.valueOf(args.get(0).toUpperCase(ROOT));
+      } catch (IllegalArgumentException e) {
+        fail("Unknown mode: " + args.get(0));
+        return null;
+      }
+      shell.setCompileMode(mode);
+    }
+    io.out.println("Compile mode is " + shell.getCompileMode().name().toLowerCase(ROOT));
+    return null;
+  }
+}
@@ -0,0 +1,62 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.transform.CompileStatic;
+import groovy.transform.TypeChecked;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compilation mode of the code evaluated in a shell session (see <code>:compile</code> command).
+ * <p>
+ * In type checked and static modes variables of the binding are typed with the classes of their
+ * current values, and closures of the binding (like methods defined in the session) can be called
+ * (see {@link BindingVariablesCustomizer}). Code which fails to compile in these modes is reported
+ * and evaluated dynamically.
+ */
+public enum CompileMode {
+
+  /**
+   * Regular dynamic Groovy.
+   */
+  DYNAMIC(null),
+
+  /**
+   * Code is type checked with {@link TypeChecked}, but methods are still dispatched dynamically
+   * (with invokedynamic).
+   */
+  TYPED(TypeChecked.class),
+
+  /**
+   * Code is compiled with {@link CompileStatic}, so method calls are as fast as in Java.
+   */
+  STATIC(CompileStatic.class);
+
+  private final Class<? extends Annotation> transformation;
+
+  CompileMode(Class<? extends Annotation> transformation) {
+    this.transformation = transformation;
+  }
+
+  /**
+   * Resets a configuration to a given base configuration and applies this mode to it.
+   */
+  void configure(CompilerConfiguration configuration, CompilerConfiguration base,
+      Binding binding) {
+    configuration.getCompilationCustomizers().clear();
+    configuration.addCompilationCustomizers(
+        base.getCompilationCustomizers().toArray(new CompilationCustomizer[0]));
+    Map<String, Boolean> optimizations = new HashMap<>(base.getOptimizationOptions());
+    if (transformation != null) {
+      optimizations.put(CompilerConfiguration.INVOKEDYNAMIC, true);
+      configuration.addCompilationCustomizers(new BindingVariablesCustomizer(binding),
+          new ASTTransformationCustomizer(transformation));
+    }
+    configuration.setOptimizationOptions(optimizations);
+  }
+}
@@ -0,0 +1,213 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.Script;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ImportNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.MethodClosure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles default scripts once and shares resulting classes across client sessions.
+ * <p>
+ * Script given as a path to an existing file is recompiled whenever file modification time
+ * changes. Any other script name is treated as an URL and compiled only once. Each compilation
+ * uses its own class loader, so outdated script classes can be unloaded after recompilation.
+ * <p>
+ * Scripts are compiled with the class loader and compiler configuration of the service, and
+ * classes declared in the scripts are registered in the {@link #getClassLoader() class loader} of
+ * the cache, which should be a parent of the session class loaders, so the code evaluated in the
+ * sessions sees them.
+ * <p>
+ * Scripts are run the way groovysh <code>:load</code> command runs them: methods declared in a
+ * script are exported to the binding, and imports of a script are returned so they can be applied
+ * to the code evaluated afterwards.
+ */
+class CompiledScriptCache {
+
+  private final Map<String, CompiledScript> scripts = new ConcurrentHashMap<>();
+  private final GroovyClassLoader classLoader;
+  private final ThreadLocal<Set<String>> collectedImports = new ThreadLocal<>();
+
+  /**
+   * @param parent        class loader of the application
+   * @param configuration compiler configuration of the code evaluated in the sessions
+   */
+  CompiledScriptCache(ClassLoader parent, CompilerConfiguration configuration) {
+    CompilerConfiguration scriptConfiguration = new CompilerConfiguration(configuration);
+    // Copy constructor of the configuration doesn't copy customizers
+    for (CompilationCustomizer customizer : configuration.getCompilationCustomizers()) {
+      scriptConfiguration.addCompilationCustomizers(customizer);
+    }
+    scriptConfiguration.addCompilationCustomizers(new ImportsCollector(collectedImports));
+    classLoader = new GroovyClassLoader(parent, scriptConfiguration);
+  }
+
+  /**
+   * @return class loader of the compiled scripts
+   */
+  GroovyClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  /**
+   * Runs a script against a given binding and exports methods declared in the script to the
+   * binding as closures. Script is compiled if it is not in the cache yet or if its source file
+   * has been modified since last compilation.
+   *
+   * @param name    path or URL of the script
+   * @param binding session binding script should be run against
+   * @return imports of the script in the form groovysh keeps them, like
+   * <code>java.util.concurrent.*</code> or <code>static java.lang.Math.max</code>
+   * @throws IOException if script source can not be read
+   */
+  List<String> run(String name, Binding binding) throws IOException {
+    CompiledScript compiled = get(name);
+    Script script = InvokerHelper.createScript(compiled.type, binding);
+    script.run();
+    for (Method method : compiled.type.getDeclaredMethods()) {
+      // Same methods groovysh exports from evaluated code
+      String methodName = method.getName();
+      if (!methodName.equals("main") && !methodName.equals("run")
+          && !methodName.startsWith("super$") && !methodName.startsWith("class$")
+          && !methodName.startsWith("$")) {
+        binding.setVariable(methodName, new MethodClosure(script, methodName));
+      }
+    }
+    return compiled.imports;
+  }
+
+  private CompiledScript get(String name) throws IOException {
+    File file = new File(name);
+    long lastModified = file.isFile() ? file.lastModified() : 0;
+
+    CompiledScript compiled = scripts.get(name);
+    if (compiled != null && compiled.lastModified == lastModified) {
+      return compiled;
+    }
+
+    try {
+      return scripts.compute(name, (key, cached) -> {
+        if (cached != null && cached.lastModified == lastModified) {
+          return cached;
+        }
+        try {
+          return compile(file, key, lastModified);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private CompiledScript compile(File file, String name, long lastModified) throws IOException {
+    GroovyCodeSource source = file.isFile()
+        ? new GroovyCodeSource(file, "UTF-8")
+        : new GroovyCodeSource(new URL(name));
+    source.setCachable(false);
+    Set<String> imports = new LinkedHashSet<>();
+    collectedImports.set(imports);
+    Class<? extends Script> type;
+    try {
+      // Each compilation gets its own inner class loader, while the classes are registered in
+      // the shared one
+      type = (Class<? extends Script>) classLoader.parseClass(source, false);
+    } finally {
+      collectedImports.remove();
+    }
+    return new CompiledScript(type, lastModified, new ArrayList<>(imports));
+  }
+
+  void clear() {
+    scripts.clear();
+  }
+
+  /**
+   * Clears the cache and releases the classes of the scripts.
+   */
+  void close() {
+    clear();
+    GroovyClassLoaders.release(classLoader);
+  }
+
+  private static class CompiledScript {
+
+    private final Class<? extends Script> type;
+    private final long lastModified;
+    private final List<String> imports;
+
+    CompiledScript(Class<? extends Script> type, long lastModified, List<String> imports) {
+      this.type = type;
+      this.lastModified = lastModified;
+      this.imports = Collections.unmodifiableList(imports);
+    }
+  }
+
+  /**
+   * Collects imports of the source compiled by the current thread.
+   */
+  private static class ImportsCollector extends CompilationCustomizer {
+
+    private final ThreadLocal<Set<String>> collectedImports;
+
+    ImportsCollector(ThreadLocal<Set<String>> collectedImports) {
+      super(CompilePhase.SEMANTIC_ANALYSIS);
+      this.collectedImports = collectedImports;
+    }
+
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+      Set<String> imports = collectedImports.get();
+      if (imports == null) {
+        return;
+      }
+      ModuleNode module = source.getAST();
+      List<ImportNode> nodes = new ArrayList<>(module.getImports());
+      nodes.addAll(module.getStarImports());
+      nodes.addAll(module.getStaticImports().values());
+      nodes.addAll(module.getStaticStarImports().values());
+      for (ImportNode node : nodes) {
+        imports.add(toImportSpec(node));
+      }
+    }
+
+    private static String toImportSpec(ImportNode node) {
+      if (node.isStar()) {
+        return node.isStatic()
+            ? "static " + className(node) + ".*"
+            : node.getPackageName() + "*";
+      }
+      String name = node.isStatic()
+          ? "static " + className(node) + "." + node.getFieldName()
+          : className(node);
+      String simpleName = node.isStatic()
+          ? node.getFieldName()
+          : node.getType().getNameWithoutPackage();
+      return node.getAlias().equals(simpleName) ? name : name + " as " + node.getAlias();
+    }
+
+    private static String className(ImportNode node) {
+      // Nested classes are imported through their outer class
+      return node.getType().getName().replace('$', '.');
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.keyprovider.KeyPairProvider;
+import org.apache.sshd.common.session.SessionContext;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Host key provider which holds key exchange of incoming connections until the service is
+ * initialized in background. As the key exchange precedes everything else, no session can reach
+ * the shell before the initialization is complete.
+ */
+class DeferredKeyPairProvider implements KeyPairProvider {
+
+  private final KeyPairProvider delegate;
+  private final CompletableFuture<?> initialization;
+
+  DeferredKeyPairProvider(KeyPairProvider delegate, CompletableFuture<?> initialization) {
+    this.delegate = delegate;
+    this.initialization = initialization;
+  }
+
+  @Override
+  public Iterable<KeyPair> loadKeys(SessionContext session)
+      throws IOException, GeneralSecurityException {
+    try {
+      initialization.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for service initialization", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Service initialization failed", e.getCause());
+    }
+    return delegate.loadKeys(session);
+  }
+}
@@ -0,0 +1,364 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.DefaultKnownHostsServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.RejectAllServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.ServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs a script on a number of {@link GroovyShellService} instances in parallel.
+ * <p>
+ * Script is run as a non-interactive command (like <code>ssh host 'script'</code>), so it should
+ * print whatever it wants to report. Output of each target is streamed line by line to a
+ * {@link FanOutListener}. Targets are served by a bounded number of threads, and SSH sessions are
+ * kept open between runs, so subsequent runs don't pay for key exchange and authentication.
+ * <p>
+ * The same client is used by <code>:fanout</code> shell command (see
+ * {@link GroovyShellService#setFanOutClient(FanOutClient)}), but it can be used on its own as
+ * well:
+ * <pre>
+ * try (FanOutClient client = new FanOutClient()) {
+ *   client.run(asList("node1:6789", "node2:6789"), "println cache.size()", (target, line) -&gt;
+ *       System.out.println("[" + target + "] " + line));
+ * }
+ * </pre>
+ */
+public class FanOutClient implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(FanOutClient.class);
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private List<String> targets = Collections.emptyList();
+  private String username = System.getProperty("user.name", "groovysh");
+  private volatile String password;
+  private int maxConcurrency = 16;
+  private long timeout = SECONDS.toMillis(30);
+  private ServerKeyVerifier serverKeyVerifier;
+  private final Map<String, ClientSession> sessions = new ConcurrentHashMap<>();
+  private final Map<String, Object> connectionLocks = new ConcurrentHashMap<>();
+  private SshClient client;
+  private ExecutorService executor;
+  private boolean closed;
+
+  /**
+   * Sets targets used by {@link #run(String, FanOutListener)}.
+   *
+   * @param targets targets in <code>host:port</code> form
+   */
+  public void setTargets(List<String> targets) {
+    for (String target : targets) {
+      parsePort(target);
+    }
+    this.targets = new ArrayList<>(targets);
+  }
+
+  public List<String> getTargets() {
+    return targets;
+  }
+
+  public void setUsername(String username) {
+    this.username = requireNonNull(username);
+  }
+
+  /**
+   * @param password password used to authenticate on targets, null if targets don't require
+   *                 authentication
+   */
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  /**
+   * Limits the number of targets the script is run on concurrently. Defaults to 16. Should be set
+   * before the first run.
+   *
+   * @param maxConcurrency maximum number of concurrently served targets
+   */
+  public void setMaxConcurrency(int maxConcurrency) {
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("Wrong max concurrency");
+    }
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * Limits the time given to each target to connect and complete the script. Script still running
+   * after the timeout is interrupted by closing its channel. Defaults to 30 seconds.
+   *
+   * @param timeout timeout in milliseconds
+   */
+  public void setTimeout(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("Wrong timeout");
+    }
+    this.timeout = timeout;
+  }
+
+  /**
+   * Sets verifier of the host keys of the targets. Should be set before the first run.
+   * <p>
+   * By default, when a {@link #setPassword(String) password} is set, host keys are checked against
+   * <code>~/.ssh/known_hosts</code> and unknown hosts are rejected, so the password is never sent
+   * to a host which can't prove its identity. Without a password all host keys are accepted.
+   */
+  public void setServerKeyVerifier(ServerKeyVerifier serverKeyVerifier) {
+    this.serverKeyVerifier = serverKeyVerifier;
+  }
+
+  /**
+   * Runs a script on the {@link #setTargets(List) configured targets}.
+   *
+   * @see #run(Collection, String, FanOutListener)
+   */
+  public List<FanOutResult> run(String script, FanOutListener listener)
+      throws InterruptedException {
+    return run(targets, script, listener);
+  }
+
+  /**
+   * Runs a script on a given targets and waits for it to complete on all of them.
+   *
+   * @param targets  targets in <code>host:port</code> form
+   * @param script   script
+   * @param listener listener receiving output of the script
+   * @return results in the order of the targets
+   * @throws InterruptedException if interrupted while waiting. Script is interrupted on all targets
+   */
+  public List<FanOutResult> run(Collection<String> targets, String script,
+      FanOutListener listener) throws InterruptedException {
+    for (String target : targets) {
+      parsePort(target);
+    }
+    ExecutorService executor = start();
+    List<Future<FanOutResult>> futures = new ArrayList<>();
+    try {
+      for (String target : new LinkedHashSet<>(targets)) {
+        futures.add(executor.submit(() -> runOn(target, script, listener)));
+      }
+      List<FanOutResult> results = new ArrayList<>();
+      for (Future<FanOutResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          // Not expected, as runOn() handles all the errors
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return results;
+    } finally {
+      for (Future<FanOutResult> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private synchronized ExecutorService start() {
+    if (closed) {
+      throw new IllegalStateException("Client is closed");
+    }
+    if (client == null) {
+      client = SshClient.setUpDefaultClient();
+      client.setServerKeyVerifier(serverKeyVerifier != null
+          ? serverKeyVerifier
+          : defaultServerKeyVerifier());
+      client.start();
+      AtomicInteger threadNumber = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+        Thread thread = new Thread(r, "GroovySh Fan-out Thread-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  private ServerKeyVerifier defaultServerKeyVerifier() {
+    ServerKeyVerifier knownHosts =
+        new DefaultKnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE, true);
+    // Password may be set after the first run, so it is checked on each connection
+    return (session, address, key) -> password != null
+        ? knownHosts.verifyServerKey(session, address, key)
+        : AcceptAllServerKeyVerifier.INSTANCE.verifyServerKey(session, address, key);
+  }
+
+  private FanOutResult runOn(String target, String script, FanOutListener listener) {
+    long startedAt = System.currentTimeMillis();
+    long deadline = startedAt + timeout;
+    FanOutResult result;
+    LineOutputStream out = new LineOutputStream(target, listener);
+    try {
+      ClientSession session = session(target, deadline);
+      try (ChannelExec channel = session.createExecChannel(script)) {
+        channel.setOut(out);
+        channel.setErr(out);
+        channel.open().verify(remaining(deadline));
+        Set<ClientChannelEvent> events = channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED),
+            remaining(deadline));
+        out.flush();
+        long elapsed = System.currentTimeMillis() - startedAt;
+        Integer exitStatus = channel.getExitStatus();
+        if (!events.contains(ClientChannelEvent.CLOSED)) {
+          result = new FanOutResult(target, FanOutResult.Status.TIMEOUT, null, elapsed, null);
+        } else if (exitStatus == null) {
+          result = new FanOutResult(target, FanOutResult.Status.ERROR, null, elapsed,
+              "Channel is closed without exit status");
+        } else {
+          result = new FanOutResult(target, exitStatus == 0
+              ? FanOutResult.Status.OK
+              : FanOutResult.Status.FAILED, exitStatus, elapsed, null);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      ClientSession session = sessions.get(target);
+      if (session != null && !session.isOpen()) {
+        sessions.remove(target, session);
+      }
+      out.flush();
+      String message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+      result = new FanOutResult(target, FanOutResult.Status.ERROR, null,
+          System.currentTimeMillis() - startedAt, message);
+    }
+    listener.onCompleted(result);
+    return result;
+  }
+
+  /**
+   * @return open session to a given target, reusing the session of previous runs if possible
+   */
+  private ClientSession session(String target, long deadline) throws IOException {
+    // Concurrent runs should not connect to the same target twice
+    synchronized (connectionLocks.computeIfAbsent(target, t -> new Object())) {
+      ClientSession session = sessions.get(target);
+      if (session != null && session.isOpen() && session.isAuthenticated()) {
+        return session;
+      }
+      if (session != null) {
+        session.close(true);
+      }
+      String host = target.substring(0, target.lastIndexOf(':'));
+      session = client.connect(username, host, parsePort(target))
+          .verify(remaining(deadline))
+          .getSession();
+      try {
+        if (password != null) {
+          session.addPasswordIdentity(password);
+        }
+        session.auth().verify(remaining(deadline));
+      } catch (IOException | RuntimeException e) {
+        session.close(true);
+        throw e;
+      }
+      sessions.put(target, session);
+      return session;
+    }
+  }
+
+  private static long remaining(long deadline) {
+    return Math.max(1, deadline - System.currentTimeMillis());
+  }
+
+  private static int parsePort(String target) {
+    int separator = target.lastIndexOf(':');
+    if (separator <= 0) {
+      throw new IllegalArgumentException("Wrong target, host:port expected: " + target);
+    }
+    try {
+      int port = Integer.parseInt(target.substring(separator + 1));
+      if (port <= 0 || port > 65535) {
+        throw new IllegalArgumentException("Wrong port number: " + target);
+      }
+      return port;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Wrong target, host:port expected: " + target);
+    }
+  }
+
+  /**
+   * Closes open sessions and stops the client.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (client != null) {
+      executor.shutdownNow();
+      for (ClientSession session : sessions.values()) {
+        session.close(true);
+      }
+      sessions.clear();
+      try {
+        client.stop();
+      } catch (RuntimeException e) {
+        log.warn("Unable to stop fan-out client", e);
+      }
+      client = null;
+    }
+  }
+
+  /**
+   * Splits output of a target into lines passed to the listener.
+   */
+  private static class LineOutputStream extends OutputStream {
+
+    private final String target;
+    private final FanOutListener listener;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    LineOutputStream(String target, FanOutListener listener) {
+      this.target = target;
+      this.listener = listener;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      if (b == '\n') {
+        emit();
+      } else {
+        line.write(b);
+        if (line.size() >= MAX_LINE_LENGTH) {
+          emit();
+        }
+      }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        write(b[i]);
+      }
+    }
+
+    /**
+     * Passes incomplete last line to the listener.
+     */
+    @Override
+    public synchronized void flush() {
+      if (line.size() > 0) {
+        emit();
+      }
+    }
+
+    private void emit() {
+      String text = new String(line.toByteArray(), UTF_8);
+      line.reset();
+      listener.onOutput(target, text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+    }
+  }
+}
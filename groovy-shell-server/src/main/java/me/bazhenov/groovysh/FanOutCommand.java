@@ -0,0 +1,109 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.util.Arrays.asList;
+
+/**
+ * <code>:fanout</code> command running a script on a number of {@link GroovyShellService}
+ * instances with {@link FanOutClient}.
+ */
+class FanOutCommand extends CommandSupport {
+
+  private static final Pattern TARGETS = Pattern.compile("[^\\s,:]+:\\d+(,[^\\s,:]+:\\d+)*");
+
+  FanOutCommand(Groovysh shell) {
+    super(shell, ":fanout", ":fo");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Run a script on a number of nodes";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[host:port,...] <script>";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Runs a script on the given nodes (or the nodes configured for the service) in "
+        + "parallel. Output is prefixed with the node, results of all nodes are summarized once "
+        + "the script is complete everywhere";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    FanOutClient client = ((ManagedGroovysh) shell).getFanOutClient();
+    if (client == null) {
+      fail("Fan-out is disabled");
+    }
+    if (args.isEmpty()) {
+      fail("Script is required");
+    }
+    CommandArguments arguments = ((ManagedGroovysh) shell).getCurrentArguments();
+    Collection<String> targets = client.getTargets();
+    if (TARGETS.matcher(args.get(0)).matches()) {
+      targets = asList(arguments.next().split(","));
+    }
+    String script = arguments.getRest();
+    if (targets.isEmpty()) {
+      fail("No nodes are given");
+    }
+    if (script.trim().isEmpty()) {
+      fail("Script is required");
+    }
+    List<FanOutResult> results;
+    try {
+      results = client.run(targets, script, new FanOutListener() {
+        @Override
+        public void onOutput(String target, String line) {
+          print("[" + target + "] " + line);
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fail("Interrupted");
+      return null;
+    }
+    printSummary(results);
+    return null;
+  }
+
+  private synchronized void print(String line) {
+    io.out.println(line);
+    io.out.flush();
+  }
+
+  private void printSummary(List<FanOutResult> results) {
+    int ok = 0;
+    long maxElapsed = 0;
+    for (FanOutResult result : results) {
+      if (result.getStatus() == FanOutResult.Status.OK) {
+        ok++;
+      } else {
+        io.out.println("[" + result.getTarget() + "] " + describe(result));
+      }
+      maxElapsed = Math.max(maxElapsed, result.getElapsedMillis());
+    }
+    io.out.println("Completed on " + ok + " of " + results.size() + " nodes, slowest node took "
+        + maxElapsed + "ms");
+  }
+
+  private static String describe(FanOutResult result) {
+    switch (result.getStatus()) {
+      case FAILED:
+        return "FAILED with exit status " + result.getExitStatus();
+      case TIMEOUT:
+        return "TIMEOUT after " + result.getElapsedMillis() + "ms";
+      default:
+        return result.getStatus() + ": " + result.getError();
+    }
+  }
+}
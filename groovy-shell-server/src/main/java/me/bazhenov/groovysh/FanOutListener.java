@@ -0,0 +1,23 @@
+package me.bazhenov.groovysh;
+
+/**
+ * Receives output and results of a script run by {@link FanOutClient}.
+ * <p>
+ * Methods are called concurrently from threads serving different targets, so implementation
+ * should be thread safe.
+ */
+public interface FanOutListener {
+
+  /**
+   * Called for each line of output (both stdout and stderr) of the script on a given target.
+   *
+   * @param target target in <code>host:port</code> form
+   */
+  void onOutput(String target, String line);
+
+  /**
+   * Called once the script is complete on a target, or has failed to run on it.
+   */
+  default void onCompleted(FanOutResult result) {
+  }
+}
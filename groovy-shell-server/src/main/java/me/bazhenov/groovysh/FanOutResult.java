@@ -0,0 +1,79 @@
+package me.bazhenov.groovysh;
+
+/**
+ * Outcome of a script run by {@link FanOutClient} on a single target.
+ */
+public final class FanOutResult {
+
+  public enum Status {
+    /**
+     * Script completed normally
+     */
+    OK,
+    /**
+     * Script has thrown an exception
+     */
+    FAILED,
+    /**
+     * Script didn't complete within the timeout
+     */
+    TIMEOUT,
+    /**
+     * Unable to connect to the target or to run the script on it
+     */
+    ERROR
+  }
+
+  private final String target;
+  private final Status status;
+  private final Integer exitStatus;
+  private final long elapsedMillis;
+  private final String error;
+
+  FanOutResult(String target, Status status, Integer exitStatus, long elapsedMillis,
+      String error) {
+    this.target = target;
+    this.status = status;
+    this.exitStatus = exitStatus;
+    this.elapsedMillis = elapsedMillis;
+    this.error = error;
+  }
+
+  /**
+   * @return target in <code>host:port</code> form
+   */
+  public String getTarget() {
+    return target;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return exit status of the script, or null if the script didn't complete
+   */
+  public Integer getExitStatus() {
+    return exitStatus;
+  }
+
+  /**
+   * @return time from the start of connection to the completion of the script
+   */
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  /**
+   * @return error message if status is {@link Status#ERROR}, otherwise null
+   */
+  public String getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return target + " " + status + (error != null ? " (" + error + ")" : "") + " in "
+        + elapsedMillis + "ms";
+  }
+}
@@ -0,0 +1,286 @@
+package me.bazhenov.groovysh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * {@link HistoryStore} keeping a bounded history of each user in memory and persisting it to an
+ * append-only file.
+ * <p>
+ * Lines are appended to the file asynchronously by a single writer thread. The file is read once
+ * when the store is created, and rewritten with retained lines only if it has grown several times
+ * over the retained history. Lines are indexed by trigrams, so search doesn't scan the whole
+ * history.
+ */
+public class FileHistoryStore implements HistoryStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(FileHistoryStore.class);
+  private static final int DEFAULT_MAX_LINES_PER_USER = 1000;
+  private static final int MAX_LINE_LENGTH = 16 * 1024;
+  private static final int COMPACTION_FACTOR = 4;
+  private static final byte ADD = 0;
+  private static final byte CLEAR = 1;
+
+  private final File file;
+  private final int maxLinesPerUser;
+  private final Map<String, UserHistory> histories = new ConcurrentHashMap<>();
+  private final ExecutorService writer;
+  private DataOutputStream out;
+  private boolean truncated;
+
+  public FileHistoryStore(File file) throws IOException {
+    this(file, DEFAULT_MAX_LINES_PER_USER);
+  }
+
+  /**
+   * @param maxLinesPerUser number of lines kept for each user
+   */
+  public FileHistoryStore(File file, int maxLinesPerUser) throws IOException {
+    if (maxLinesPerUser <= 0) {
+      throw new IllegalArgumentException("Wrong max lines per user");
+    }
+    this.file = file;
+    this.maxLinesPerUser = maxLinesPerUser;
+    long records = file.isFile() ? read() : 0;
+    long retained = 0;
+    for (UserHistory history : histories.values()) {
+      retained += history.size();
+    }
+    if (truncated || records > retained * COMPACTION_FACTOR) {
+      compact();
+    }
+    out = openForAppend();
+    writer = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "GroovySh History Writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public List<String> load(String user) {
+    return history(user).lines();
+  }
+
+  @Override
+  public void add(String user, String line) {
+    if (line.length() > MAX_LINE_LENGTH) {
+      line = line.substring(0, MAX_LINE_LENGTH);
+    }
+    history(user).add(line);
+    String added = line;
+    persist(() -> append(ADD, user, added));
+  }
+
+  @Override
+  public void clear(String user) {
+    history(user).clear();
+    persist(() -> append(CLEAR, user, null));
+  }
+
+  @Override
+  public List<String> search(String user, String text, int limit) {
+    UserHistory history = histories.get(user);
+    return history != null ? history.search(text, limit) : Collections.emptyList();
+  }
+
+  /**
+   * Writes pending lines and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(10, SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    out.close();
+  }
+
+  private UserHistory history(String user) {
+    return histories.computeIfAbsent(user, u -> new UserHistory(maxLinesPerUser));
+  }
+
+  private void persist(Runnable task) {
+    try {
+      writer.execute(task);
+    } catch (RejectedExecutionException e) {
+      log.debug("History store is closed, line is not persisted");
+    }
+  }
+
+  private void append(byte type, String user, String line) {
+    try {
+      write(out, type, user, line);
+      out.flush();
+    } catch (IOException e) {
+      log.warn("Unable to write history to {}", file, e);
+    }
+  }
+
+  private static void write(DataOutputStream out, byte type, String user, String line)
+      throws IOException {
+    out.writeByte(type);
+    out.writeUTF(user);
+    if (type == ADD) {
+      out.writeUTF(line);
+    }
+  }
+
+  /**
+   * @return number of records read
+   */
+  private long read() throws IOException {
+    long records = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      while (true) {
+        int type = in.read();
+        if (type < 0) {
+          break;
+        }
+        String user = in.readUTF();
+        if (type == ADD) {
+          history(user).add(in.readUTF());
+        } else if (type == CLEAR) {
+          history(user).clear();
+        } else {
+          throw new IOException("Wrong history record type: " + type);
+        }
+        records++;
+      }
+    } catch (EOFException | UTFDataFormatException e) {
+      // Last record wasn't written completely
+      log.warn("History file {} is truncated", file);
+      truncated = true;
+    }
+    return records;
+  }
+
+  private void compact() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp)))) {
+      for (Map.Entry<String, UserHistory> entry : histories.entrySet()) {
+        for (String line : entry.getValue().lines()) {
+          write(out, ADD, entry.getKey(), line);
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private DataOutputStream openForAppend() throws FileNotFoundException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+  }
+
+  /**
+   * Ring of the most recent lines of a user with a trigram index. Posting lists of the index keep
+   * lines in the order they were added, so the evicted (oldest) line is always at the head of all
+   * lists it is in.
+   */
+  private static class UserHistory {
+
+    private final int capacity;
+    private final ArrayDeque<Line> lines = new ArrayDeque<>();
+    private final Map<Long, ArrayDeque<Line>> index = new HashMap<>();
+
+    UserHistory(int capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized int size() {
+      return lines.size();
+    }
+
+    synchronized List<String> lines() {
+      List<String> result = new ArrayList<>(lines.size());
+      for (Line line : lines) {
+        result.add(line.text);
+      }
+      return result;
+    }
+
+    synchronized void add(String text) {
+      if (lines.size() == capacity) {
+        Line evicted = lines.removeFirst();
+        for (long trigram : evicted.trigrams) {
+          ArrayDeque<Line> posting = index.get(trigram);
+          posting.removeFirst();
+          if (posting.isEmpty()) {
+            index.remove(trigram);
+          }
+        }
+      }
+      Line line = new Line(text);
+      lines.addLast(line);
+      for (long trigram : line.trigrams) {
+        index.computeIfAbsent(trigram, t -> new ArrayDeque<>()).addLast(line);
+      }
+    }
+
+    synchronized void clear() {
+      lines.clear();
+      index.clear();
+    }
+
+    synchronized List<String> search(String text, int limit) {
+      ArrayDeque<Line> candidates = lines;
+      for (long trigram : trigrams(text)) {
+        ArrayDeque<Line> posting = index.get(trigram);
+        if (posting == null) {
+          return Collections.emptyList();
+        }
+        if (posting.size() < candidates.size()) {
+          candidates = posting;
+        }
+      }
+      List<String> result = new ArrayList<>();
+      Iterator<Line> it = candidates.descendingIterator();
+      while (it.hasNext() && result.size() < limit) {
+        Line line = it.next();
+        if (line.text.contains(text)) {
+          result.add(line.text);
+        }
+      }
+      return result;
+    }
+
+    private static long[] trigrams(String text) {
+      Set<Long> result = new LinkedHashSet<>();
+      for (int i = 0; i + 3 <= text.length(); i++) {
+        result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+            | text.charAt(i + 2));
+      }
+      long[] trigrams = new long[result.size()];
+      int i = 0;
+      for (long trigram : result) {
+        trigrams[i++] = trigram;
+      }
+      return trigrams;
+    }
+  }
+
+  private static class Line {
+
+    private final String text;
+    private final long[] trigrams;
+
+    Line(String text) {
+      this.text = text;
+      this.trigrams = UserHistory.trigrams(text);
+    }
+  }
+}
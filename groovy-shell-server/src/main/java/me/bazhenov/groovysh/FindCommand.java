@@ -0,0 +1,81 @@
+package me.bazhenov.groovysh;
+
+import jline.console.history.FileHistory;
+import jline.console.history.History;
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * <code>:find</code> command searching the history of the user for lines containing a given text.
+ */
+class FindCommand extends CommandSupport {
+
+  private static final int LIMIT = 20;
+
+  FindCommand(Groovysh shell) {
+    super(shell, ":find", ":f");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Search history for a text";
+  }
+
+  @Override
+  public String getUsage() {
+    return "<text>";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Lists most recent lines of your history containing a given text";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    if (args.isEmpty()) {
+      fail("Text to search for is required");
+    }
+    String text = String.join(" ", args);
+    FileHistory history = shell.getHistory();
+    List<String> lines;
+    if (history instanceof StoredHistory) {
+      StoredHistory stored = (StoredHistory) history;
+      lines = stored.getStore().search(stored.getUser(), text, LIMIT + 1);
+    } else {
+      lines = scan(history, text);
+    }
+    int printed = 0;
+    for (String line : lines) {
+      // Skipping the search itself, which is already in the history
+      if (printed < LIMIT && !isFindCommand(line)) {
+        io.out.println("  " + line);
+        printed++;
+      }
+    }
+    return null;
+  }
+
+  private boolean isFindCommand(String line) {
+    return line.startsWith(getName() + " ") || line.startsWith(getShortcut() + " ");
+  }
+
+  private static List<String> scan(History history, String text) {
+    List<String> result = new ArrayList<>();
+    if (history == null) {
+      return result;
+    }
+    ListIterator<History.Entry> it = history.entries(history.size());
+    while (it.hasPrevious() && result.size() <= LIMIT) {
+      String line = it.previous().value().toString();
+      if (line.contains(text)) {
+        result.add(line);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,33 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+final class GroovyClassLoaders {
+
+  private static final Logger log = LoggerFactory.getLogger(GroovyClassLoaders.class);
+
+  private GroovyClassLoaders() {
+  }
+
+  /**
+   * Releases classes compiled by a given class loader. Classes are removed from Groovy meta class
+   * registry (which otherwise keeps them reachable), so they can be unloaded together with the
+   * class loader.
+   */
+  static void release(GroovyClassLoader classLoader) {
+    for (Class<?> type : classLoader.getLoadedClasses()) {
+      InvokerHelper.removeClass(type);
+    }
+    classLoader.clearCache();
+    try {
+      classLoader.close();
+    } catch (IOException e) {
+      log.debug("Unable to close class loader", e);
+    }
+  }
+}
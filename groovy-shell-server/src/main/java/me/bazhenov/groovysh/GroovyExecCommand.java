@@ -0,0 +1,212 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyShell;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static me.bazhenov.groovysh.GroovyShellService.registerChannelStats;
+import static me.bazhenov.groovysh.GroovyShellService.unregisterChannelStats;
+
+/**
+ * Non-interactive command executing a script passed by ssh client (<code>ssh host 'script'</code>)
+ * or, if command is empty, read from the input stream (<code>ssh host &lt; script.groovy</code>).
+ * <p>
+ * Script is compiled and run directly against the bindings, without terminal emulation. Output is
+ * written as is. Exit status is 0 if script completed normally and 1 otherwise.
+ */
+class GroovyExecCommand implements Command {
+
+  private final String script;
+  private final List<String> defaultScripts;
+  private final CompiledScriptCache scriptCache;
+  private final Binding binding;
+  private final CompilerConfiguration configuration;
+  private final SessionExecutor sessionExecutor;
+  private final ShellMetrics metrics;
+  private final CommandWatchdog watchdog;
+  private final AuditLog auditLog;
+  private InputStream in;
+  private OutputStream out;
+  private OutputStream err;
+  private ExitCallback callback;
+  private SessionExecutor.Handle wrapper;
+  private volatile GroovyClassLoader shellClassLoader;
+
+  GroovyExecCommand(String script, List<String> defaultScripts, CompiledScriptCache scriptCache,
+      Binding binding, CompilerConfiguration configuration, SessionExecutor sessionExecutor,
+      ShellMetrics metrics, CommandWatchdog watchdog, AuditLog auditLog) {
+    this.script = script;
+    this.defaultScripts = defaultScripts;
+    this.scriptCache = scriptCache;
+    this.binding = binding;
+    this.configuration = configuration;
+    this.sessionExecutor = sessionExecutor;
+    this.metrics = metrics;
+    this.watchdog = watchdog;
+    this.auditLog = auditLog;
+  }
+
+  @Override
+  public void setInputStream(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public void setOutputStream(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void setErrorStream(OutputStream err) {
+    this.err = err;
+  }
+
+  @Override
+  public void setExitCallback(ExitCallback callback) {
+    this.callback = callback;
+  }
+
+  @Override
+  public void start(ChannelSession channel, Environment env) throws IOException {
+    SessionStats stats = new SessionStats(channel.getSession(), metrics);
+    registerChannelStats(channel, stats);
+
+    PrintStream out = new PrintStream(new AccountingOutputStream(this.out, stats), true, "utf8");
+    PrintStream err = new PrintStream(new AccountingOutputStream(this.err, stats), true, "utf8");
+    binding.setVariable("out", out);
+    binding.setVariable("err", err);
+
+    Runnable runnable = () -> {
+      try {
+        stats.attachCurrentThread();
+        int exitCode = run(stats, err);
+        out.flush();
+        err.flush();
+        callback.onExit(exitCode);
+      } finally {
+        release(channel);
+      }
+    };
+    try {
+      wrapper = sessionExecutor.execute(runnable, threadName(channel));
+    } catch (RejectedExecutionException e) {
+      metrics.connectionRejected();
+      err.println("Session rejected: " + e.getMessage());
+      release(channel);
+      callback.onExit(1, e.getMessage());
+    } catch (RuntimeException | Error e) {
+      // Session won't run, so nothing else releases it
+      release(channel);
+      throw e;
+    }
+  }
+
+  private void release(ChannelSession channel) {
+    unregisterChannelStats(channel);
+    binding.getVariables().clear();
+    GroovyClassLoader classLoader = this.shellClassLoader;
+    if (classLoader != null) {
+      GroovyClassLoaders.release(classLoader);
+    }
+  }
+
+  private int run(SessionStats stats, PrintStream err) {
+    String source;
+    try {
+      source = script.trim().isEmpty() ? readInput() : script;
+    } catch (IOException e) {
+      err.println("Unable to read script: " + e.getMessage());
+      return 1;
+    }
+    long startedAt = System.nanoTime();
+    CommandWatchdog.Watch watch = watchdog != null ? watchdog.watch() : null;
+    String violation = null;
+    try {
+      List<String> imports = new ArrayList<>();
+      for (String script : defaultScripts) {
+        imports.addAll(scriptCache.run(script, binding));
+      }
+      GroovyShell shell = new GroovyShell(scriptCache.getClassLoader(), binding,
+          ImportSpecs.withImports(configuration, imports));
+      shellClassLoader = shell.getClassLoader();
+      shell.parse(source, "exec.groovy").run();
+      return 0;
+    } catch (Throwable e) {
+      violation = watch != null ? watch.done() : null;
+      if (violation == null) {
+        e.printStackTrace(err);
+      }
+      return 1;
+    } finally {
+      if (watch != null && violation == null) {
+        violation = watch.done();
+      }
+      if (violation != null) {
+        err.println("Command aborted: exceeded " + violation);
+      }
+      long nanos = System.nanoTime() - startedAt;
+      stats.commandEvaluated(nanos, violation != null);
+      if (auditLog != null) {
+        auditLog.commandEvaluated(stats, source, nanos, stats.getOutputBytes(), violation != null);
+      }
+    }
+  }
+
+  private String readInput() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int read;
+    while ((read = in.read(chunk)) >= 0) {
+      buffer.write(chunk, 0, read);
+    }
+    return new String(buffer.toByteArray(), UTF_8);
+  }
+
+  private static String threadName(ChannelSession channel) {
+    String address = channel.getSession().getIoSession().getRemoteAddress().toString();
+    return "GroovySh Exec Thread: " + address;
+  }
+
+  /**
+   * Accounts output written by the script in the session statistics.
+   */
+  private static class AccountingOutputStream extends FilterOutputStream {
+
+    private final SessionStats stats;
+
+    AccountingOutputStream(OutputStream out, SessionStats stats) {
+      super(out);
+      this.stats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long startedAt = System.nanoTime();
+      out.write(b, off, len);
+      stats.outputWritten(len, System.nanoTime() - startedAt);
+    }
+  }
+
+  @Override
+  public void destroy(ChannelSession channel) {
+    if (wrapper != null) {
+      wrapper.interrupt();
+    }
+  }
+}
@@ -4,41 +4,85 @@ import groovy.lang.Binding;
 import groovy.lang.Closure;
 import org.apache.groovy.groovysh.Groovysh;
 import org.apache.sshd.common.SshException;
+import org.apache.sshd.common.session.Session;
 import org.apache.sshd.common.session.helpers.AbstractSession;
 import org.apache.sshd.server.Environment;
 import org.apache.sshd.server.ExitCallback;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.channel.ChannelSession;
 import org.apache.sshd.server.command.Command;
-import org.codehaus.groovy.tools.shell.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static java.util.Collections.singletonList;
 import static me.bazhenov.groovysh.GroovyShellService.SHELL_KEY;
-import static org.codehaus.groovy.tools.shell.IO.Verbosity.DEBUG;
+import static me.bazhenov.groovysh.GroovyShellService.collectSessionStats;
+import static me.bazhenov.groovysh.GroovyShellService.registerChannelStats;
+import static me.bazhenov.groovysh.GroovyShellService.unregisterChannelStats;
 
 class GroovyShellCommand implements Command {
 
+  private static final Logger log = LoggerFactory.getLogger(GroovyShellCommand.class);
+
   private final SshServer sshd;
-  private final Map<String, Object> bindings;
   private final List<String> defaultScripts;
+  private final CompiledScriptCache scriptCache;
+  private final GroovyShellPool shellPool;
+  private final SessionExecutor sessionExecutor;
+  private final ShellMetrics metrics;
+  private final CommandWatchdog watchdog;
+  private final long maxOutputBytesPerSecond;
+  private final long maxOutputBytesPerCommand;
+  private final AuditLog auditLog;
+  private final HistoryStore historyStore;
+  private final int maxResultElements;
+  private final long maxResultChars;
+  private final boolean resultPaging;
+  private final JobManager jobManager;
+  private final FanOutClient fanOutClient;
+  private final StackSampler stackSampler;
+  private final BenchmarkRunner benchmarkRunner;
+  private final CompileMode compileMode;
   private InputStream in;
   private OutputStream out;
   private OutputStream err;
   private ExitCallback callback;
-  private Thread wrapper;
+  private SessionExecutor.Handle wrapper;
+  private ManagedGroovysh shell;
+  private final AtomicBoolean released = new AtomicBoolean();
   private ChannelSession session;
   private final AtomicBoolean isServiceAlive;
 
-  GroovyShellCommand(SshServer sshd, Map<String, Object> bindings, List<String> defaultScripts,
-      AtomicBoolean isServiceAlive) {
+  GroovyShellCommand(SshServer sshd, List<String> defaultScripts,
+      CompiledScriptCache scriptCache, GroovyShellPool shellPool, SessionExecutor sessionExecutor,
+      ShellMetrics metrics, CommandWatchdog watchdog, long maxOutputBytesPerSecond,
+      long maxOutputBytesPerCommand, AuditLog auditLog, HistoryStore historyStore,
+      int maxResultElements, long maxResultChars, boolean resultPaging, JobManager jobManager,
+      FanOutClient fanOutClient, StackSampler stackSampler, BenchmarkRunner benchmarkRunner,
+      CompileMode compileMode, AtomicBoolean isServiceAlive) {
     this.sshd = sshd;
-    this.bindings = bindings;
     this.defaultScripts = defaultScripts;
+    this.scriptCache = scriptCache;
+    this.shellPool = shellPool;
+    this.sessionExecutor = sessionExecutor;
+    this.metrics = metrics;
+    this.watchdog = watchdog;
+    this.maxOutputBytesPerSecond = maxOutputBytesPerSecond;
+    this.maxOutputBytesPerCommand = maxOutputBytesPerCommand;
+    this.auditLog = auditLog;
+    this.historyStore = historyStore;
+    this.maxResultElements = maxResultElements;
+    this.maxResultChars = maxResultChars;
+    this.resultPaging = resultPaging;
+    this.jobManager = jobManager;
+    this.fanOutClient = fanOutClient;
+    this.stackSampler = stackSampler;
+    this.benchmarkRunner = benchmarkRunner;
+    this.compileMode = compileMode;
     this.isServiceAlive = isServiceAlive;
   }
 
@@ -65,12 +109,31 @@ class GroovyShellCommand implements Command {
   @Override
   public void start(ChannelSession session, Environment env) throws IOException {
     this.session = session;
-    TtyFilterOutputStream out = new TtyFilterOutputStream(this.out, isServiceAlive);
-    TtyFilterOutputStream err = new TtyFilterOutputStream(this.err, isServiceAlive);
+    SessionStats stats = new SessionStats(session.getSession(), metrics);
+    OutputLimiter limiter = new OutputLimiter(maxOutputBytesPerSecond, maxOutputBytesPerCommand,
+        stats);
+    TtyFilterOutputStream out = new TtyFilterOutputStream(this.out, isServiceAlive, limiter);
+    TtyFilterOutputStream err = new TtyFilterOutputStream(this.err, isServiceAlive, limiter);
 
-    IO io = new IO(in, out, err);
-    io.setVerbosity(DEBUG);
-    Groovysh shell = new Groovysh(createBinding(bindings, out, err), io);
+    GroovyShellPool.PooledShell pooledShell = shellPool.take();
+    pooledShell.attach(in, out, err);
+    ManagedGroovysh shell = pooledShell.getShell();
+    this.shell = shell;
+    shell.setStats(stats);
+    shell.setWatchdog(watchdog);
+    shell.setOutputLimiter(limiter);
+    shell.setAuditLog(auditLog);
+    shell.setJobManager(jobManager);
+    shell.setFanOutClient(fanOutClient);
+    shell.setStackSampler(stackSampler);
+    shell.setBenchmarkRunner(benchmarkRunner);
+    shell.setCompileMode(compileMode);
+    if (historyStore != null) {
+      shell.setStoredHistory(new StoredHistory(historyStore, session.getSession().getUsername()));
+    }
+    populateBinding(shell.getInterp().getContext(), out, err);
+    shell.setResultHook(new ResultRenderer(shell, maxResultElements, maxResultChars,
+        resultPaging));
     shell.setErrorHook(new Closure<Object>(this) {
       @Override
       public Object call(Object... args) {
@@ -89,37 +152,67 @@ class GroovyShellCommand implements Command {
           + e.getClass().getName() + ": " + e.getMessage());
     }
 
-    this.session.setAttribute(SHELL_KEY, shell);
+    this.session.getSession().setAttribute(SHELL_KEY, shell);
+    registerChannelStats(this.session, stats);
 
     Runnable runnable = () -> {
       try {
         SshTerminal.registerEnvironment(env);
+        stats.attachCurrentThread();
         shell.run("");
         callback.onExit(0);
       } catch (RuntimeException | Error e) {
         callback.onExit(-1, e.getMessage());
+      } finally {
+        SshTerminal.unregisterEnvironment();
+        release(shell);
       }
     };
-    wrapper = newThread(runnable, this.session);
-    wrapper.start();
+    try {
+      wrapper = sessionExecutor.execute(runnable, threadName(this.session));
+    } catch (RejectedExecutionException e) {
+      metrics.connectionRejected();
+      createPrintStream(err).println("Session rejected: " + e.getMessage());
+      release(shell);
+      callback.onExit(1, e.getMessage());
+      return;
+    } catch (RuntimeException | Error e) {
+      // Session won't run, so nothing else releases the shell
+      release(shell);
+      throw e;
+    }
+    if (wrapper.isQueued()) {
+      createPrintStream(out).println("Too many active sessions, waiting for a free slot...");
+    }
   }
 
-  private static Thread newThread(Runnable r, ChannelSession session) {
+  /**
+   * Tears down the shell of a finished session, so classes compiled in the session (and objects
+   * referenced from the bindings) don't outlive it.
+   */
+  private void release(ManagedGroovysh shell) {
+    if (!released.compareAndSet(false, true)) {
+      return;
+    }
+    Session session = this.session.getSession();
+    if (session.getAttribute(SHELL_KEY) == shell) {
+      session.removeAttribute(SHELL_KEY);
+    }
+    unregisterChannelStats(this.session);
+    try {
+      shell.release();
+    } catch (RuntimeException e) {
+      log.warn("Unable to release shell resources", e);
+    }
+  }
+
+  private static String threadName(ChannelSession session) {
     String address = session.getSession().getIoSession().getRemoteAddress().toString();
-    String threadName = "GroovySh Client Thread: " + address;
-    return new Thread(r, threadName);
+    return "GroovySh Client Thread: " + address;
   }
 
-  private Binding createBinding(Map<String, Object> objects, OutputStream out, OutputStream err)
+  private void populateBinding(Binding binding, OutputStream out, OutputStream err)
       throws UnsupportedEncodingException {
-    Binding binding = new Binding();
-
-    if (objects != null) {
-      for (Map.Entry<String, Object> row : objects.entrySet()) {
-        binding.setVariable(row.getKey(), row.getValue());
-      }
-    }
-
     binding.setVariable("out", createPrintStream(out));
     binding.setVariable("err", createPrintStream(err));
     binding.setVariable("activeSessions", new Closure<List<AbstractSession>>(this) {
@@ -128,8 +221,12 @@ class GroovyShellCommand implements Command {
         return sshd.getActiveSessions();
       }
     });
-
-    return binding;
+    binding.setVariable("sessionStats", new Closure<List<SessionStats>>(this) {
+      @Override
+      public List<SessionStats> call() {
+        return collectSessionStats(sshd);
+      }
+    });
   }
 
   private static PrintStream createPrintStream(OutputStream out)
@@ -137,33 +234,25 @@ class GroovyShellCommand implements Command {
     return new PrintStream(out, true, "utf8");
   }
 
-  @SuppressWarnings({"unchecked", "serial"})
-  private void loadDefaultScripts(Groovysh shell) {
-    if (!defaultScripts.isEmpty()) {
-      Closure<Groovysh> defaultResultHook = shell.getResultHook();
-
-      try {
-        // Set a "no-op closure so we don't get per-line value output when evaluating the default script
-        shell.setResultHook(new Closure<Groovysh>(this) {
-          @Override
-          public Groovysh call(Object... args) {
-            return shell;
-          }
-        });
-
-        org.apache.groovy.groovysh.Command cmd = shell.getRegistry().find(":load");
-        for (String script : defaultScripts) {
-          cmd.execute(singletonList(script));
-        }
-      } finally {
-        // Restoring original result hook
-        shell.setResultHook(defaultResultHook);
+  private void loadDefaultScripts(Groovysh shell) throws IOException {
+    Binding binding = shell.getInterp().getContext();
+    for (String script : defaultScripts) {
+      for (String importSpec : scriptCache.run(script, binding)) {
+        // Latest import goes last, as with :import command
+        shell.getImports().remove(importSpec);
+        shell.getImports().add(importSpec);
       }
     }
   }
 
   @Override
   public void destroy(ChannelSession channel) {
-    wrapper.interrupt();
+    if (wrapper != null) {
+      wrapper.interrupt();
+      if (wrapper.isQueued()) {
+        // Session was cancelled before it had a chance to run
+        release(shell);
+      }
+    }
   }
 }
@@ -0,0 +1,127 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.session.helpers.AbstractSession;
+import org.apache.sshd.server.SshServer;
+
+import java.util.Collection;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * JMX management bean of a {@link GroovyShellService} instance.
+ */
+class GroovyShellManagement implements GroovyShellManagementMBean {
+
+  private static final double NANOS_PER_MILLI = NANOSECONDS.convert(1, MILLISECONDS);
+
+  private final SshServer sshd;
+  private final ShellMetrics metrics;
+
+  GroovyShellManagement(SshServer sshd, ShellMetrics metrics) {
+    this.sshd = sshd;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public int getActiveSessions() {
+    return sshd.getActiveSessions().size();
+  }
+
+  @Override
+  public long getTotalConnections() {
+    return metrics.getTotalConnections();
+  }
+
+  @Override
+  public long getRejectedConnections() {
+    return metrics.getRejectedConnections();
+  }
+
+  @Override
+  public long getEvalCount() {
+    return metrics.getEvalCount();
+  }
+
+  @Override
+  public long getAbortedCommands() {
+    return metrics.getAbortedCommands();
+  }
+
+  @Override
+  public double getEvalLatencyP50Millis() {
+    return metrics.getEvalLatencyNanos(50) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getEvalLatencyP99Millis() {
+    return metrics.getEvalLatencyNanos(99) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getEvalLatencyP999Millis() {
+    return metrics.getEvalLatencyNanos(99.9) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getOutputBytes() {
+    return metrics.getOutputBytes();
+  }
+
+  @Override
+  public double getOutputBytesPerSecond() {
+    return metrics.getOutputBytesPerSecond();
+  }
+
+  @Override
+  public long getTruncatedCommands() {
+    return metrics.getTruncatedCommands();
+  }
+
+  @Override
+  public long getOutputBlockedMillis() {
+    return NANOSECONDS.toMillis(metrics.getOutputBlockedNanos());
+  }
+
+  @Override
+  public long getAuditRecordsDropped() {
+    return metrics.getAuditRecordsDropped();
+  }
+
+  @Override
+  public String[] listSessions() {
+    List<AbstractSession> sessions = sshd.getActiveSessions();
+    String[] result = new String[sessions.size()];
+    for (int i = 0; i < result.length; i++) {
+      AbstractSession session = sessions.get(i);
+      Collection<SessionStats> stats = GroovyShellService.getChannelStats(session);
+      String description = !stats.isEmpty()
+          ? stats.stream().map(SessionStats::toString).collect(joining(", "))
+          : session.getUsername() + "@" + session.getIoSession().getRemoteAddress();
+      result[i] = session.getIoSession().getId() + ": " + description;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean killSession(long id) {
+    for (AbstractSession session : sshd.getActiveSessions()) {
+      if (session.getIoSession().getId() == id) {
+        session.close(true);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int killAllClients() {
+    List<AbstractSession> sessions = sshd.getActiveSessions();
+    for (AbstractSession session : sessions) {
+      session.close(true);
+    }
+    return sessions.size();
+  }
+}
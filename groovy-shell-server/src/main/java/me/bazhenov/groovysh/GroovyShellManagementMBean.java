@@ -0,0 +1,52 @@
+package me.bazhenov.groovysh;
+
+/**
+ * JMX management interface of {@link GroovyShellService}.
+ */
+public interface GroovyShellManagementMBean {
+
+  int getActiveSessions();
+
+  long getTotalConnections();
+
+  long getRejectedConnections();
+
+  long getEvalCount();
+
+  long getAbortedCommands();
+
+  double getEvalLatencyP50Millis();
+
+  double getEvalLatencyP99Millis();
+
+  double getEvalLatencyP999Millis();
+
+  long getOutputBytes();
+
+  double getOutputBytesPerSecond();
+
+  long getTruncatedCommands();
+
+  long getOutputBlockedMillis();
+
+  long getAuditRecordsDropped();
+
+  /**
+   * @return descriptions of active client sessions prefixed with session id
+   */
+  String[] listSessions();
+
+  /**
+   * Closes client session with a given id and stops its shell thread.
+   *
+   * @return true if session was found
+   */
+  boolean killSession(long id);
+
+  /**
+   * Closes all client sessions and stops associated shell threads.
+   *
+   * @return number of sessions closed
+   */
+  int killAllClients();
+}
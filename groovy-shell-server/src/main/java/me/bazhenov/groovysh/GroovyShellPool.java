@@ -0,0 +1,254 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import org.apache.groovy.groovysh.Groovysh;
+import org.apache.groovy.groovysh.util.PackageHelper;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.tools.shell.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singletonList;
+import static org.codehaus.groovy.tools.shell.IO.Verbosity.DEBUG;
+
+/**
+ * Pool of pre-built and pre-warmed {@link Groovysh} instances.
+ * <p>
+ * Building a shell (command registry, parser, interpreter) takes noticeable time, so shells are
+ * created ahead of time in a background thread. Each pooled shell is built on top of detached
+ * streams and a newly created {@link Binding}; a client session attaches its own streams and fills
+ * the binding once it takes a shell from the pool. If pool size is zero, shells are built on
+ * demand.
+ */
+class GroovyShellPool {
+
+  private static final Logger log = LoggerFactory.getLogger(GroovyShellPool.class);
+
+  private final ClassLoader classLoader;
+  private final Supplier<? extends Binding> bindingFactory;
+  private final CompilerConfiguration configuration;
+  private final PackageHelper packageHelper;
+  private final BlockingQueue<PooledShell> shells;
+  private final ExecutorService refillExecutor;
+  private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param packageHelper package helper for import completion, or null to use default one
+   */
+  GroovyShellPool(int size, ClassLoader classLoader, Supplier<? extends Binding> bindingFactory,
+      CompilerConfiguration configuration, PackageHelper packageHelper) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Wrong pool size");
+    }
+    this.classLoader = classLoader;
+    this.bindingFactory = bindingFactory;
+    this.configuration = configuration;
+    this.packageHelper = packageHelper;
+    if (size > 0) {
+      shells = new ArrayBlockingQueue<>(size);
+      refillExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "GroovySh Shell Pool");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+      scheduleRefill();
+    } else {
+      shells = null;
+      refillExecutor = null;
+    }
+  }
+
+  /**
+   * @return ready to use shell from the pool, or newly created one if pool is empty
+   */
+  PooledShell take() {
+    if (shells == null) {
+      // Pooling is off, so there are neither hits nor misses
+      return newShell();
+    }
+    PooledShell shell = shells.poll();
+    if (shell != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      shell = newShell();
+    }
+    scheduleRefill();
+    return shell;
+  }
+
+  private PooledShell newShell() {
+    PooledShell shell = new PooledShell(classLoader, bindingFactory.get(), configuration);
+    if (packageHelper != null) {
+      shell.getShell().setPackageHelper(packageHelper);
+    }
+    return shell;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  int getAvailable() {
+    return shells != null ? shells.size() : 0;
+  }
+
+  void shutdown() {
+    if (refillExecutor != null) {
+      refillExecutor.shutdownNow();
+      shells.clear();
+    }
+  }
+
+  private void scheduleRefill() {
+    if (refillScheduled.compareAndSet(false, true)) {
+      try {
+        refillExecutor.execute(this::refill);
+      } catch (RuntimeException e) {
+        refillScheduled.set(false);
+        log.debug("Unable to schedule shell pool refill", e);
+      }
+    }
+  }
+
+  private void refill() {
+    refillScheduled.set(false);
+    try {
+      while (shells.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+        PooledShell shell = newShell();
+        shell.warmUp();
+        if (!shells.offer(shell)) {
+          break;
+        }
+      }
+    } catch (RuntimeException | LinkageError e) {
+      log.warn("Unable to prepare Groovy shell", e);
+    }
+  }
+
+  /**
+   * Shell built on detached streams. Streams should be attached with {@link #attach} before shell
+   * is run.
+   */
+  static class PooledShell {
+
+    private final DetachedInputStream in = new DetachedInputStream();
+    private final DetachedOutputStream out = new DetachedOutputStream();
+    private final DetachedOutputStream err = new DetachedOutputStream();
+    private final ManagedGroovysh shell;
+
+    PooledShell(ClassLoader classLoader, Binding binding, CompilerConfiguration configuration) {
+      IO io = new IO(in, out, err);
+      io.setVerbosity(DEBUG);
+      shell = new ManagedGroovysh(classLoader, binding, io, configuration);
+    }
+
+    /**
+     * Loads classes needed for evaluation by evaluating a trivial expression.
+     */
+    void warmUp() {
+      shell.getInterp().evaluate(singletonList("true"));
+    }
+
+    void attach(InputStream in, OutputStream out, OutputStream err) {
+      this.in.target = in;
+      this.out.target = out;
+      this.err.target = err;
+    }
+
+    ManagedGroovysh getShell() {
+      return shell;
+    }
+  }
+
+  private static class DetachedInputStream extends InputStream {
+
+    private volatile InputStream target;
+
+    @Override
+    public int read() throws IOException {
+      return target().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return target().read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return target().available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      InputStream target = this.target;
+      if (target != null) {
+        target.close();
+      }
+    }
+
+    private InputStream target() throws IOException {
+      InputStream target = this.target;
+      if (target == null) {
+        throw new IOException("Stream is not attached");
+      }
+      return target;
+    }
+  }
+
+  private static class DetachedOutputStream extends OutputStream {
+
+    private volatile OutputStream target;
+
+    @Override
+    public void write(int b) throws IOException {
+      OutputStream target = this.target;
+      if (target != null) {
+        target.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      OutputStream target = this.target;
+      if (target != null) {
+        target.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      OutputStream target = this.target;
+      if (target != null) {
+        target.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      OutputStream target = this.target;
+      if (target != null) {
+        target.close();
+      }
+    }
+  }
+}
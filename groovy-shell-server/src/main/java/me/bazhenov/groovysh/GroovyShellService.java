@@ -12,28 +12,54 @@
  */
 package me.bazhenov.groovysh;
 
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.transform.ThreadInterrupt;
 import org.apache.groovy.groovysh.Groovysh;
+import org.apache.groovy.groovysh.util.PackageHelper;
+import org.apache.sshd.common.keyprovider.KeyPairProvider;
 import org.apache.sshd.common.session.Session;
 import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.common.session.helpers.AbstractSession;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.auth.UserAuthFactory;
 import org.apache.sshd.server.auth.UserAuthNoneFactory;
 import org.apache.sshd.server.auth.password.PasswordAuthenticator;
 import org.apache.sshd.server.auth.password.UserAuthPasswordFactory;
+import org.apache.sshd.server.auth.pubkey.UserAuthPublicKeyFactory;
 import org.apache.sshd.server.channel.ChannelSession;
 import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.command.CommandFactory;
 import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
 import org.apache.sshd.server.shell.ShellFactory;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.codehaus.groovy.tools.shell.util.Preferences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
-import static java.util.Collections.singletonList;
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static jline.TerminalFactory.Flavor.UNIX;
@@ -52,17 +78,70 @@ import static org.apache.sshd.server.SshServer.setUpDefaultServer;
 @SuppressWarnings("UnusedDeclaration")
 public class GroovyShellService {
 
+  private static final Logger log = LoggerFactory.getLogger(GroovyShellService.class);
+
   private int port;
   private String host;
-  private Map<String, Object> bindings;
+  private final SharedBindings bindings = new SharedBindings();
+  private final Map<String, Object> readOnlyBindings = unmodifiableMap(bindings);
+  private Function<Map<String, Object>, ? extends Binding> bindingFactory = LayeredBinding::new;
   private PasswordAuthenticator passwordAuthenticator;
+  private long passwordCacheTtl = 0;
+  private File authorizedKeysFile;
+  private AuthorizedKeysStore authorizedKeys;
   private long idleTimeOut = HOURS.toMillis(1);
 
   static final Session.AttributeKey<Groovysh> SHELL_KEY = new Session.AttributeKey<>();
+  // Statistics of each channel (shell or exec) opened within an SSH session
+  static final Session.AttributeKey<Map<ChannelSession, SessionStats>> STATS_KEY =
+      new Session.AttributeKey<>();
   private List<String> defaultScripts = new ArrayList<>();
   private SshServer sshd;
   private boolean disableImportCompletions = false;
+  private File importCompletionIndex;
   private final AtomicBoolean isServiceAlive = new AtomicBoolean(true);
+  private CompiledScriptCache scriptCache;
+  private int shellPoolSize = 0;
+  private GroovyShellPool shellPool;
+  private int maxSessions = 0;
+  private int maxQueuedSessions = 0;
+  private boolean useVirtualThreads = false;
+  private SessionExecutor sessionExecutor;
+  private SessionExecutor activeSessionExecutor;
+  private long commandWallTimeout = 0;
+  private long commandCpuTimeout = 0;
+  private long commandAbortGracePeriod = SECONDS.toMillis(1);
+  private CommandWatchdog watchdog;
+  private long maxOutputBytesPerSecond = 0;
+  private long maxOutputBytesPerCommand = 0;
+  private ClassLoader classLoader;
+  private CompilerConfiguration compilerConfiguration;
+  private final ShellMetrics metrics = new ShellMetrics();
+  private ObjectName managementName;
+  private boolean deferredInitialization = false;
+  private File auditLogFile;
+  private long auditLogMaxFileSize = 100 * 1024 * 1024;
+  private long auditLogFlushInterval = SECONDS.toMillis(1);
+  private int auditLogQueueCapacity = 64 * 1024;
+  private AuditOverflowPolicy auditLogOverflowPolicy = AuditOverflowPolicy.DROP;
+  private AuditLog auditLog;
+  private File historyFile;
+  private HistoryStore historyStore;
+  private HistoryStore activeHistoryStore;
+  private int maxResultElements = 1000;
+  private long maxResultChars = 100_000;
+  private boolean resultPaging = false;
+  private int maxJobs = 2;
+  private int maxQueuedJobs = 16;
+  private int jobOutputBufferSize = 1024 * 1024;
+  private JobManager jobManager;
+  private FanOutClient fanOutClient;
+  private FanOutClient activeFanOutClient;
+  private StackSampler stackSampler;
+  private long maxBenchmarkTime = SECONDS.toMillis(30);
+  private BenchmarkRunner benchmarkRunner;
+  private CompileMode compileMode = CompileMode.DYNAMIC;
+  private CompletableFuture<Void> initialization;
 
   /**
    * Uses a default port of 6789
@@ -80,12 +159,56 @@ public class GroovyShellService {
     registerFlavor(UNIX, SshTerminal.class);
   }
 
+  /**
+   * @return live view of the variables shared by all client sessions. Changes made through the view
+   * are visible to open sessions right away
+   */
   public Map<String, Object> getBindings() {
     return bindings;
   }
 
+  /**
+   * Sets variables shared by all client sessions. Map is not copied, so later changes of the map
+   * are visible to sessions, and {@link #addBinding(String, Object)} writes to it. Map should be
+   * thread safe if it is changed while the service is running. Can be called after the service is
+   * started, new variables are visible to open sessions right away.
+   *
+   * @param bindings shared variables
+   */
   public void setBindings(Map<String, Object> bindings) {
-    this.bindings = bindings;
+    this.bindings.replace(bindings);
+  }
+
+  /**
+   * Adds (or replaces) variable shared by all client sessions. Open sessions see the change right
+   * away, unless they have defined a variable with the same name.
+   *
+   * @param name  variable name
+   * @param value variable value
+   */
+  public void addBinding(String name, Object value) {
+    bindings.put(requireNonNull(name), value);
+  }
+
+  /**
+   * Removes variable shared by all client sessions.
+   *
+   * @param name variable name
+   */
+  public void removeBinding(String name) {
+    bindings.remove(name);
+  }
+
+  /**
+   * Sets factory of the per-session {@link Binding}. Factory is given a read only view of the
+   * shared variables (see {@link #setBindings(Map)}), which binding should consult for variables
+   * not defined in the session. Can be used to provide variables which should be resolved lazily.
+   *
+   * @param bindingFactory binding factory
+   * @see LayeredBinding
+   */
+  public void setBindingFactory(Function<Map<String, Object>, ? extends Binding> bindingFactory) {
+    this.bindingFactory = requireNonNull(bindingFactory);
   }
 
   public int getPort() {
@@ -94,6 +217,9 @@ public class GroovyShellService {
 
   /**
    * Adds a groovy script to be executed for each new client session.
+   * <p>
+   * Script is compiled once on first use and shared between sessions. It is recompiled if the
+   * script file is modified.
    *
    * @param script script
    */
@@ -138,28 +264,633 @@ public class GroovyShellService {
     this.disableImportCompletions = disableImportCompletions;
   }
 
+  /**
+   * Enables import completion backed by a persistent index of classpath classes.
+   * <p>
+   * Index is built in a background thread after the service is started and saved to a given file.
+   * On the next start it is loaded from the file, unless the classpath has changed. Scanning of
+   * nested jars is supported, so this is a replacement of the default autoscan which is
+   * {@link #setDisableImportCompletions(boolean) disabled} when the index is used.
+   * <p>
+   * Please, keep in mind that disabled autoscan is written (and persisted) using Java Preferences
+   * API, same as with {@link #setDisableImportCompletions(boolean)}. So it stays disabled for the
+   * other groovysh instances of the OS user, even after the index is no longer used, until removed
+   * by hand (you can use groovysh <code>:set</code> command).
+   *
+   * @param importCompletionIndex index file
+   */
+  public void setImportCompletionIndex(File importCompletionIndex) {
+    this.importCompletionIndex = importCompletionIndex;
+  }
+
   public void setPasswordAuthenticator(PasswordAuthenticator passwordAuthenticator) {
     this.passwordAuthenticator = passwordAuthenticator;
   }
 
+  /**
+   * Caches successful checks of the {@link #setPasswordAuthenticator(PasswordAuthenticator)
+   * password authenticator}, so repeated logins of a user don't call it. A changed password is
+   * accepted until the cached check expires. Disabled by default.
+   *
+   * @param passwordCacheTtl time a successful check is cached for in milliseconds, zero disables
+   *                         caching
+   */
+  public void setPasswordCacheTtl(long passwordCacheTtl) {
+    if (passwordCacheTtl < 0) {
+      throw new IllegalArgumentException("Wrong password cache TTL");
+    }
+    this.passwordCacheTtl = passwordCacheTtl;
+  }
+
+  /**
+   * Enables public key authentication with keys listed in a given file of OpenSSH
+   * <code>authorized_keys</code> format. The file is loaded into memory when the service starts
+   * and reloaded when it is changed. Any user name is accepted with an authorized key. May be used
+   * along with {@link #setPasswordAuthenticator(PasswordAuthenticator) password authentication}.
+   *
+   * @param authorizedKeysFile authorized keys file
+   */
+  public void setAuthorizedKeysFile(File authorizedKeysFile) {
+    this.authorizedKeysFile = authorizedKeysFile;
+  }
+
   public void setDefaultScripts(List<String> defaultScriptNames) {
     this.defaultScripts = defaultScriptNames;
   }
 
+  /**
+   * Enables deferred initialization. When enabled, {@link #start()} only binds the port, while the
+   * host key is loaded (or generated) and shell classes are preloaded in a background thread.
+   * Connections accepted before the initialization is complete wait for it on the key exchange.
+   *
+   * @param deferredInitialization true to initialize service in background
+   */
+  public void setDeferredInitialization(boolean deferredInitialization) {
+    this.deferredInitialization = deferredInitialization;
+  }
+
+  /**
+   * Sets the number of pre-built shells kept ready for new client sessions. Pool is refilled in a
+   * background thread. Zero (default) disables pooling, so shell is built when client connects.
+   *
+   * @param shellPoolSize number of pre-built shells
+   */
+  public void setShellPoolSize(int shellPoolSize) {
+    if (shellPoolSize < 0) {
+      throw new IllegalArgumentException("Wrong shell pool size");
+    }
+    this.shellPoolSize = shellPoolSize;
+  }
+
+  public int getShellPoolSize() {
+    return shellPoolSize;
+  }
+
+  /**
+   * @return number of client sessions served with a pre-built shell
+   */
+  public long getShellPoolHits() {
+    GroovyShellPool pool = shellPool;
+    return pool != null ? pool.getHits() : 0;
+  }
+
+  /**
+   * @return number of client sessions which had to wait for a shell to be built
+   */
+  public long getShellPoolMisses() {
+    GroovyShellPool pool = shellPool;
+    return pool != null ? pool.getMisses() : 0;
+  }
+
+  /**
+   * @return number of pre-built shells ready for new client sessions
+   */
+  public int getShellPoolAvailable() {
+    GroovyShellPool pool = shellPool;
+    return pool != null ? pool.getAvailable() : 0;
+  }
+
+  /**
+   * Limits the number of concurrently running client sessions. Zero (default) means no limit.
+   *
+   * @param maxSessions maximum number of concurrent sessions
+   * @see #setMaxQueuedSessions(int)
+   */
+  public void setMaxSessions(int maxSessions) {
+    if (maxSessions < 0) {
+      throw new IllegalArgumentException("Wrong max sessions number");
+    }
+    this.maxSessions = maxSessions;
+  }
+
+  public int getMaxSessions() {
+    return maxSessions;
+  }
+
+  /**
+   * Sets the number of client sessions allowed to wait for a free slot when
+   * {@link #setMaxSessions(int) sessions limit} is reached. Sessions exceeding this number are
+   * rejected. Default is zero, so sessions are rejected right away.
+   *
+   * @param maxQueuedSessions maximum number of waiting sessions
+   */
+  public void setMaxQueuedSessions(int maxQueuedSessions) {
+    if (maxQueuedSessions < 0) {
+      throw new IllegalArgumentException("Wrong max queued sessions number");
+    }
+    this.maxQueuedSessions = maxQueuedSessions;
+  }
+
+  public int getMaxQueuedSessions() {
+    return maxQueuedSessions;
+  }
+
+  /**
+   * Run client sessions on virtual threads. Ignored (with a warning) if runtime doesn't support
+   * virtual threads.
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  /**
+   * Sets custom session executor. If set, {@link #setMaxSessions(int)},
+   * {@link #setMaxQueuedSessions(int)} and {@link #setUseVirtualThreads(boolean)} are ignored.
+   *
+   * @param sessionExecutor session executor
+   */
+  public void setSessionExecutor(SessionExecutor sessionExecutor) {
+    this.sessionExecutor = sessionExecutor;
+  }
+
+  /**
+   * Limits wall-clock time of a single command evaluated in the shell. Command exceeding the limit
+   * is interrupted, and stopped forcibly if it is still running after
+   * {@link #setCommandAbortGracePeriod(long) grace period}. Session stays open. Zero (default)
+   * means no limit.
+   *
+   * @param commandWallTimeout timeout in milliseconds
+   */
+  public void setCommandWallTimeout(long commandWallTimeout) {
+    if (commandWallTimeout < 0) {
+      throw new IllegalArgumentException("Wrong command wall timeout");
+    }
+    this.commandWallTimeout = commandWallTimeout;
+  }
+
+  public long getCommandWallTimeout() {
+    return commandWallTimeout;
+  }
+
+  /**
+   * Limits CPU time of a single command evaluated in the shell. Zero (default) means no limit.
+   *
+   * @param commandCpuTimeout timeout in milliseconds
+   * @see #setCommandWallTimeout(long)
+   */
+  public void setCommandCpuTimeout(long commandCpuTimeout) {
+    if (commandCpuTimeout < 0) {
+      throw new IllegalArgumentException("Wrong command CPU timeout");
+    }
+    this.commandCpuTimeout = commandCpuTimeout;
+  }
+
+  public long getCommandCpuTimeout() {
+    return commandCpuTimeout;
+  }
+
+  /**
+   * Sets time given to interrupted command to complete before it is stopped forcibly. Default is
+   * 1 second.
+   *
+   * @param commandAbortGracePeriod grace period in milliseconds
+   */
+  public void setCommandAbortGracePeriod(long commandAbortGracePeriod) {
+    if (commandAbortGracePeriod < 0) {
+      throw new IllegalArgumentException("Wrong command abort grace period");
+    }
+    this.commandAbortGracePeriod = commandAbortGracePeriod;
+  }
+
+  /**
+   * Limits output rate of a client session. Session thread exceeding the rate is slowed down, so
+   * a chatty command can't saturate the SSH channel. Zero (default) means no limit.
+   *
+   * @param maxOutputBytesPerSecond maximum output rate in bytes per second
+   */
+  public void setMaxOutputBytesPerSecond(long maxOutputBytesPerSecond) {
+    if (maxOutputBytesPerSecond < 0) {
+      throw new IllegalArgumentException("Wrong max output rate");
+    }
+    this.maxOutputBytesPerSecond = maxOutputBytesPerSecond;
+  }
+
+  public long getMaxOutputBytesPerSecond() {
+    return maxOutputBytesPerSecond;
+  }
+
+  /**
+   * Limits output of a single command evaluated in the shell. Output exceeding the limit is
+   * truncated and a marker is printed instead. Zero (default) means no limit.
+   *
+   * @param maxOutputBytesPerCommand maximum output of a command in bytes
+   */
+  public void setMaxOutputBytesPerCommand(long maxOutputBytesPerCommand) {
+    if (maxOutputBytesPerCommand < 0) {
+      throw new IllegalArgumentException("Wrong max output per command");
+    }
+    this.maxOutputBytesPerCommand = maxOutputBytesPerCommand;
+  }
+
+  public long getMaxOutputBytesPerCommand() {
+    return maxOutputBytesPerCommand;
+  }
+
+  /**
+   * Enables audit log of commands evaluated by clients. Each command is written as a JSON line with
+   * time, user, session, command text, duration and output size. Records are written by a
+   * background thread, so shell threads are not blocked on file writes.
+   *
+   * @param auditLogFile audit log file, null (default) disables audit
+   */
+  public void setAuditLog(File auditLogFile) {
+    this.auditLogFile = auditLogFile;
+  }
+
+  /**
+   * Sets the size audit log file is rotated at. Rotated file is renamed with a timestamp suffix and
+   * is never removed. Defaults to 100Mb, zero disables rotation.
+   *
+   * @param auditLogMaxFileSize maximum file size in bytes
+   */
+  public void setAuditLogMaxFileSize(long auditLogMaxFileSize) {
+    if (auditLogMaxFileSize < 0) {
+      throw new IllegalArgumentException("Wrong audit log max file size");
+    }
+    this.auditLogMaxFileSize = auditLogMaxFileSize;
+  }
+
+  /**
+   * Sets how often audit log is flushed to the file. Buffer is also flushed whenever it is full.
+   * Defaults to 1 second.
+   *
+   * @param auditLogFlushInterval flush interval in milliseconds
+   */
+  public void setAuditLogFlushInterval(long auditLogFlushInterval) {
+    if (auditLogFlushInterval <= 0) {
+      throw new IllegalArgumentException("Wrong audit log flush interval");
+    }
+    this.auditLogFlushInterval = auditLogFlushInterval;
+  }
+
+  /**
+   * Sets the maximum number of records waiting to be written. When the queue is full, records are
+   * handled according to {@link #setAuditLogOverflowPolicy(AuditOverflowPolicy) overflow policy}.
+   *
+   * @param auditLogQueueCapacity queue capacity in records
+   */
+  public void setAuditLogQueueCapacity(int auditLogQueueCapacity) {
+    if (auditLogQueueCapacity <= 0) {
+      throw new IllegalArgumentException("Wrong audit log queue capacity");
+    }
+    this.auditLogQueueCapacity = auditLogQueueCapacity;
+  }
+
+  /**
+   * Sets behavior of the audit log when the writer falls behind. Defaults to
+   * {@link AuditOverflowPolicy#DROP}.
+   */
+  public void setAuditLogOverflowPolicy(AuditOverflowPolicy auditLogOverflowPolicy) {
+    this.auditLogOverflowPolicy = requireNonNull(auditLogOverflowPolicy);
+  }
+
+  /**
+   * Keeps shell history of each SSH user separately in a given file, instead of the history file
+   * shared by all users of the JVM account. Recent lines of each user are kept in memory, the file
+   * is appended asynchronously. Also enables <code>:find</code> command searching the history.
+   *
+   * @param historyFile history file, null (default) means groovysh history file is used
+   * @see FileHistoryStore
+   */
+  public void setHistoryFile(File historyFile) {
+    this.historyFile = historyFile;
+  }
+
+  /**
+   * Sets custom storage of the shell history kept separately for each SSH user. Store is not closed
+   * by the service. Takes precedence over {@link #setHistoryFile(File)}.
+   *
+   * @param historyStore history store, null (default) means groovysh history file is used
+   */
+  public void setHistoryStore(HistoryStore historyStore) {
+    this.historyStore = historyStore;
+  }
+
+  /**
+   * Limits the number of elements printed for each collection, map, array or iterator returned by
+   * a command. Defaults to 1000, zero means no limit.
+   *
+   * @param maxResultElements maximum number of elements
+   */
+  public void setMaxResultElements(int maxResultElements) {
+    if (maxResultElements < 0) {
+      throw new IllegalArgumentException("Wrong max result elements");
+    }
+    this.maxResultElements = maxResultElements;
+  }
+
+  /**
+   * Limits the number of characters printed for a result of a command. Results are rendered
+   * incrementally, so a large result is never converted to a string as a whole. Defaults to 100000,
+   * zero means no limit.
+   *
+   * @param maxResultChars maximum number of characters
+   */
+  public void setMaxResultChars(long maxResultChars) {
+    if (maxResultChars < 0) {
+      throw new IllegalArgumentException("Wrong max result chars");
+    }
+    this.maxResultChars = maxResultChars;
+  }
+
+  /**
+   * Enables paging of command results: output is paused every terminal page until a key is pressed
+   * (space for the next page, enter for the next line, <code>q</code> to stop). Disabled by
+   * default.
+   */
+  public void setResultPaging(boolean resultPaging) {
+    this.resultPaging = resultPaging;
+  }
+
+  /**
+   * Limits the number of background jobs (see <code>:bg</code> command) running concurrently.
+   * Defaults to 2, zero disables background jobs.
+   *
+   * @param maxJobs maximum number of concurrently running jobs
+   */
+  public void setMaxJobs(int maxJobs) {
+    if (maxJobs < 0) {
+      throw new IllegalArgumentException("Wrong max jobs number");
+    }
+    this.maxJobs = maxJobs;
+  }
+
+  public int getMaxJobs() {
+    return maxJobs;
+  }
+
+  /**
+   * Sets the number of background jobs allowed to wait for execution when
+   * {@link #setMaxJobs(int) jobs limit} is reached. Jobs exceeding this number are rejected.
+   * Defaults to 16.
+   *
+   * @param maxQueuedJobs maximum number of waiting jobs
+   */
+  public void setMaxQueuedJobs(int maxQueuedJobs) {
+    if (maxQueuedJobs < 0) {
+      throw new IllegalArgumentException("Wrong max queued jobs number");
+    }
+    this.maxQueuedJobs = maxQueuedJobs;
+  }
+
+  /**
+   * Sets the size of the buffer keeping output of a background job. Only the most recent output
+   * is kept. Defaults to 1Mb.
+   *
+   * @param jobOutputBufferSize buffer size in bytes
+   */
+  public void setJobOutputBufferSize(int jobOutputBufferSize) {
+    if (jobOutputBufferSize <= 0) {
+      throw new IllegalArgumentException("Wrong job output buffer size");
+    }
+    this.jobOutputBufferSize = jobOutputBufferSize;
+  }
+
+  /**
+   * Sets client used by <code>:fanout</code> command to run scripts on other nodes. Client may be
+   * configured with the default list of nodes and credentials. Client is not closed by the
+   * service. If not set, the service creates a client which requires nodes to be given explicitly.
+   *
+   * @param fanOutClient fan-out client
+   */
+  public void setFanOutClient(FanOutClient fanOutClient) {
+    this.fanOutClient = fanOutClient;
+  }
+
+  /**
+   * Limits the total warmup and measurement time of a <code>:bench</code> benchmark. Benchmarks
+   * use up to all the processors of the node, so the limit keeps them short. Defaults to 30
+   * seconds, zero disables benchmarks.
+   *
+   * @param maxBenchmarkTime maximum benchmark time in milliseconds
+   */
+  public void setMaxBenchmarkTime(long maxBenchmarkTime) {
+    if (maxBenchmarkTime < 0) {
+      throw new IllegalArgumentException("Wrong max benchmark time");
+    }
+    this.maxBenchmarkTime = maxBenchmarkTime;
+  }
+
+  /**
+   * Sets the mode code of interactive sessions is compiled in by default. Session can change it
+   * with <code>:compile</code> command. Defaults to {@link CompileMode#DYNAMIC}.
+   */
+  public void setCompileMode(CompileMode compileMode) {
+    this.compileMode = requireNonNull(compileMode);
+  }
+
+  /**
+   * @return resource usage statistics of all active client sessions
+   */
+  public List<SessionStats> getSessionStats() {
+    SshServer sshd = this.sshd;
+    return sshd != null ? collectSessionStats(sshd) : emptyList();
+  }
+
+  /**
+   * @return service-wide metrics
+   */
+  public ShellMetrics getMetrics() {
+    return metrics;
+  }
+
+  static List<SessionStats> collectSessionStats(SshServer sshd) {
+    List<SessionStats> result = new ArrayList<>();
+    for (AbstractSession session : sshd.getActiveSessions()) {
+      result.addAll(getChannelStats(session));
+    }
+    return result;
+  }
+
+  static Collection<SessionStats> getChannelStats(Session session) {
+    Map<ChannelSession, SessionStats> stats = session.getAttribute(STATS_KEY);
+    return stats != null ? stats.values() : emptyList();
+  }
+
+  static void registerChannelStats(ChannelSession channel, SessionStats stats) {
+    channel.getSession().computeAttributeIfAbsent(STATS_KEY, k -> new ConcurrentHashMap<>())
+        .put(channel, stats);
+  }
+
+  static void unregisterChannelStats(ChannelSession channel) {
+    Map<ChannelSession, SessionStats> stats = channel.getSession().getAttribute(STATS_KEY);
+    if (stats != null) {
+      stats.remove(channel);
+    }
+  }
+
   /**
    * Starts Groovysh
    *
    * @throws IOException thrown if socket cannot be opened
    */
   public synchronized void start() throws IOException {
-    sshd = buildSshServer();
-    sshd.start();
-    if (disableImportCompletions) {
+    if (disableImportCompletions || importCompletionIndex != null) {
       Preferences.put(IMPORT_COMPLETION_PREFERENCE_KEY, "true");
     }
+    classLoader = Thread.currentThread().getContextClassLoader();
+    KeyPairProvider hostKeyProvider = new SimpleGeneratorHostKeyProvider(
+        new File("host.key").toPath());
+    if (deferredInitialization) {
+      initialization = new CompletableFuture<>();
+      sshd = buildSshServer(new DeferredKeyPairProvider(hostKeyProvider, initialization));
+      sshd.start();
+      Thread thread = new Thread(() -> initializeInBackground(hostKeyProvider),
+          "GroovySh Initializer");
+      thread.setDaemon(true);
+      thread.start();
+    } else {
+      initialize();
+      if (watchdog != null) {
+        // Forcible stop of the first command might land in static initializers of the parser
+        // classes, which would leave them broken for the whole JVM
+        try {
+          preloadClasses();
+        } catch (ClassNotFoundException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      initialization = completedFuture(null);
+      sshd = buildSshServer(hostKeyProvider);
+      sshd.start();
+      registerManagementBean();
+    }
   }
 
-  private SshServer buildSshServer() {
+  private void initializeInBackground(KeyPairProvider hostKeyProvider) {
+    long startedAt = System.currentTimeMillis();
+    try {
+      initialize();
+      hostKeyProvider.loadKeys(null);
+      preloadClasses();
+      registerManagementBean();
+      log.info("Groovy shell service initialized in {}ms", System.currentTimeMillis() - startedAt);
+      initialization.complete(null);
+    } catch (Throwable e) {
+      log.error("Unable to initialize groovy shell service", e);
+      initialization.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Loads classes needed for the first client session by compiling a trivial script.
+   */
+  private void preloadClasses() throws ClassNotFoundException {
+    Class.forName(Groovysh.class.getName(), true, classLoader);
+    Class.forName("jline.console.ConsoleReader", true, classLoader);
+    GroovyShell shell = new GroovyShell(classLoader, new Binding(), compilerConfiguration);
+    try {
+      shell.parse("true").run();
+    } finally {
+      GroovyClassLoaders.release(shell.getClassLoader());
+    }
+  }
+
+  private void initialize() throws IOException {
+    compilerConfiguration = new CompilerConfiguration();
+    if (commandWallTimeout > 0 || commandCpuTimeout > 0) {
+      // Loops in evaluated code should check thread interruption, so watchdog can abort them
+      compilerConfiguration.addCompilationCustomizers(
+          new ASTTransformationCustomizer(ThreadInterrupt.class));
+      watchdog = new CommandWatchdog(commandWallTimeout, commandCpuTimeout,
+          commandAbortGracePeriod, metrics);
+    }
+    scriptCache = new CompiledScriptCache(classLoader, compilerConfiguration);
+    if (historyStore != null) {
+      activeHistoryStore = historyStore;
+    } else if (historyFile != null) {
+      activeHistoryStore = new FileHistoryStore(historyFile);
+    }
+    if (auditLogFile != null) {
+      auditLog = new AuditLog(auditLogFile, auditLogMaxFileSize, auditLogFlushInterval,
+          auditLogQueueCapacity, auditLogOverflowPolicy, metrics);
+    }
+    activeFanOutClient = fanOutClient != null ? fanOutClient : new FanOutClient();
+    stackSampler = new StackSampler();
+    if (maxBenchmarkTime > 0) {
+      benchmarkRunner = new BenchmarkRunner(maxBenchmarkTime);
+    }
+    if (maxJobs > 0) {
+      jobManager = new JobManager(maxJobs, maxQueuedJobs, jobOutputBufferSize,
+          () -> bindingFactory.apply(readOnlyBindings), jobCompilerConfiguration());
+    }
+    PackageHelper packageHelper = importCompletionIndex != null
+        ? new IndexedPackageHelper(importCompletionIndex, classLoader)
+        : null;
+    shellPool = new GroovyShellPool(shellPoolSize, scriptCache.getClassLoader(),
+        () -> bindingFactory.apply(readOnlyBindings), compilerConfiguration, packageHelper);
+    activeSessionExecutor = sessionExecutor != null
+        ? sessionExecutor
+        : new BoundedSessionExecutor(maxSessions, maxQueuedSessions, useVirtualThreads);
+  }
+
+  /**
+   * @return compiler configuration of background jobs, which makes loops of the job check thread
+   * interruption, so the job can be killed
+   */
+  private CompilerConfiguration jobCompilerConfiguration() {
+    if (watchdog != null) {
+      // Already compiled with interruption checks
+      return compilerConfiguration;
+    }
+    CompilerConfiguration configuration = new CompilerConfiguration(compilerConfiguration);
+    for (CompilationCustomizer customizer : compilerConfiguration.getCompilationCustomizers()) {
+      configuration.addCompilationCustomizers(customizer);
+    }
+    configuration.addCompilationCustomizers(
+        new ASTTransformationCustomizer(ThreadInterrupt.class));
+    return configuration;
+  }
+
+  /**
+   * Registers {@link GroovyShellManagementMBean} in the platform MBean server, so sessions can be
+   * listed and killed from any JMX frontend.
+   */
+  private void registerManagementBean() {
+    try {
+      ObjectName name = new ObjectName(
+          "me.bazhenov.groovysh:type=GroovyShellService,port=" + sshd.getPort());
+      StandardMBean bean = new StandardMBean(new GroovyShellManagement(sshd, metrics),
+          GroovyShellManagementMBean.class);
+      getPlatformMBeanServer().registerMBean(bean, name);
+      managementName = name;
+    } catch (JMException e) {
+      log.warn("Unable to register management bean", e);
+    }
+  }
+
+  private void unregisterManagementBean() {
+    if (managementName != null) {
+      try {
+        getPlatformMBeanServer().unregisterMBean(managementName);
+      } catch (JMException e) {
+        log.warn("Unable to unregister management bean", e);
+      }
+      managementName = null;
+    }
+  }
+
+  private SshServer buildSshServer(KeyPairProvider hostKeyProvider) throws IOException {
     SshServer sshd = setUpDefaultServer();
     sshd.setPort(port);
     if (host != null) {
@@ -173,6 +904,7 @@ public class GroovyShellService {
     sshd.addSessionListener(new SessionListener() {
       @Override
       public void sessionCreated(Session session) {
+        metrics.connectionOpened();
       }
 
       @Override
@@ -192,33 +924,116 @@ public class GroovyShellService {
       }
     });
 
-    sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(new File("host.key").toPath()));
+    sshd.setKeyPairProvider(hostKeyProvider);
     configureAuthentication(sshd);
     sshd.setShellFactory(new GroovyShellFactory());
+    sshd.setCommandFactory(new GroovyExecCommandFactory());
     return sshd;
   }
 
-  private void configureAuthentication(SshServer sshd) {
-    UserAuthFactory auth;
+  private void configureAuthentication(SshServer sshd) throws IOException {
+    List<UserAuthFactory> auth = new ArrayList<>();
+    if (authorizedKeysFile != null) {
+      authorizedKeys = new AuthorizedKeysStore(authorizedKeysFile);
+      sshd.setPublickeyAuthenticator(authorizedKeys);
+      auth.add(new UserAuthPublicKeyFactory());
+    }
     if (this.passwordAuthenticator != null) {
-      sshd.setPasswordAuthenticator(this.passwordAuthenticator);
-      auth = new UserAuthPasswordFactory();
-    } else {
-      auth = new UserAuthNoneFactory();
+      sshd.setPasswordAuthenticator(passwordCacheTtl > 0
+          ? new CachingPasswordAuthenticator(passwordAuthenticator, passwordCacheTtl)
+          : passwordAuthenticator);
+      auth.add(new UserAuthPasswordFactory());
     }
-    sshd.setUserAuthFactories(singletonList(auth));
+    if (auth.isEmpty()) {
+      auth.add(new UserAuthNoneFactory());
+    }
+    sshd.setUserAuthFactories(auth);
   }
 
   public synchronized void destroy() throws IOException {
     isServiceAlive.set(false);
-    sshd.stop(true);
+    if (initialization != null) {
+      try {
+        // Management bean is registered by the deferred initialization
+        initialization.join();
+      } catch (CompletionException e) {
+        // Initialization failure is already logged
+      }
+    }
+    unregisterManagementBean();
+    if (activeSessionExecutor != null) {
+      activeSessionExecutor.shutdown();
+    }
+    if (sshd != null) {
+      sshd.stop(true);
+    }
+    if (shellPool != null) {
+      shellPool.shutdown();
+    }
+    if (jobManager != null) {
+      jobManager.shutdown();
+      jobManager = null;
+    }
+    if (activeFanOutClient != null && activeFanOutClient != fanOutClient) {
+      // Client is created by the service
+      activeFanOutClient.close();
+    }
+    activeFanOutClient = null;
+    if (stackSampler != null) {
+      stackSampler.shutdown();
+      stackSampler = null;
+    }
+    benchmarkRunner = null;
+    if (authorizedKeys != null) {
+      authorizedKeys.close();
+      authorizedKeys = null;
+    }
+    if (watchdog != null) {
+      watchdog.shutdown();
+      watchdog = null;
+    }
+    if (auditLog != null) {
+      auditLog.close();
+      auditLog = null;
+    }
+    if (activeHistoryStore != null && activeHistoryStore != historyStore) {
+      // History store is created by the service
+      ((FileHistoryStore) activeHistoryStore).close();
+    }
+    activeHistoryStore = null;
+    if (scriptCache != null) {
+      scriptCache.close();
+      scriptCache = null;
+    }
   }
 
   class GroovyShellFactory implements ShellFactory {
 
     @Override
     public Command createShell(ChannelSession channel) {
-      return new GroovyShellCommand(sshd, bindings, defaultScripts, isServiceAlive);
+      if (channel.getEnvironment().getPtyModes().isEmpty()) {
+        // No terminal is requested (e.g. ssh host < script.groovy), running script from input
+        return createExecCommand("");
+      }
+      return new GroovyShellCommand(sshd, defaultScripts, scriptCache, shellPool,
+          activeSessionExecutor, metrics, watchdog, maxOutputBytesPerSecond,
+          maxOutputBytesPerCommand, auditLog, activeHistoryStore, maxResultElements,
+          maxResultChars, resultPaging, jobManager, activeFanOutClient, stackSampler,
+          benchmarkRunner, compileMode, isServiceAlive);
     }
   }
+
+  class GroovyExecCommandFactory implements CommandFactory {
+
+    @Override
+    public Command createCommand(ChannelSession channel, String command) {
+      return createExecCommand(command);
+    }
+  }
+
+  private Command createExecCommand(String script) {
+    return new GroovyExecCommand(script, defaultScripts, scriptCache,
+        bindingFactory.apply(readOnlyBindings), compilerConfiguration, activeSessionExecutor,
+        metrics, watchdog, auditLog);
+  }
 }
@@ -0,0 +1,30 @@
+package me.bazhenov.groovysh;
+
+import java.util.List;
+
+/**
+ * Storage of shell command history, kept separately for each user authenticated over SSH.
+ * <p>
+ * Methods are called from session threads, so implementation should be thread safe and should
+ * not block on I/O.
+ *
+ * @see FileHistoryStore
+ */
+public interface HistoryStore {
+
+  /**
+   * @return recent history of a given user, oldest line first
+   */
+  List<String> load(String user);
+
+  void add(String user, String line);
+
+  void clear(String user);
+
+  /**
+   * @param text  text to look for
+   * @param limit maximum number of lines returned
+   * @return lines of user history containing a given text, most recent first
+   */
+  List<String> search(String user, String text, int limit);
+}
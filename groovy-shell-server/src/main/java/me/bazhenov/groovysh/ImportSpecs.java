@@ -0,0 +1,72 @@
+package me.bazhenov.groovysh;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+
+import java.util.Collection;
+
+/**
+ * Applies imports in the form groovysh keeps them (like <code>java.util.concurrent.*</code>,
+ * <code>static java.lang.Math.max</code> or <code>java.util.Map.Entry as Pair</code>) to the code
+ * compiled outside of the shell.
+ */
+final class ImportSpecs {
+
+  private static final String STATIC = "static ";
+  private static final String ALIAS = " as ";
+
+  private ImportSpecs() {
+  }
+
+  /**
+   * Source of the code is not changed, so line numbers are kept and the code may start with a
+   * shebang or a package declaration.
+   *
+   * @return copy of a given configuration, which imports given classes into the compiled code
+   */
+  static CompilerConfiguration withImports(CompilerConfiguration configuration,
+      Collection<String> imports) {
+    CompilerConfiguration result = new CompilerConfiguration(configuration);
+    // Copy constructor of the configuration doesn't copy customizers
+    for (CompilationCustomizer customizer : configuration.getCompilationCustomizers()) {
+      result.addCompilationCustomizers(customizer);
+    }
+    if (!imports.isEmpty()) {
+      ImportCustomizer customizer = new ImportCustomizer();
+      for (String spec : imports) {
+        add(customizer, spec.trim());
+      }
+      result.addCompilationCustomizers(customizer);
+    }
+    return result;
+  }
+
+  private static void add(ImportCustomizer customizer, String spec) {
+    boolean isStatic = spec.startsWith(STATIC);
+    String name = isStatic ? spec.substring(STATIC.length()).trim() : spec;
+    String alias = null;
+    int aliasAt = name.indexOf(ALIAS);
+    if (aliasAt > 0) {
+      alias = name.substring(aliasAt + ALIAS.length()).trim();
+      name = name.substring(0, aliasAt).trim();
+    }
+    int dot = name.lastIndexOf('.');
+    if (dot <= 0) {
+      throw new IllegalArgumentException("Wrong import: " + spec);
+    }
+    String owner = name.substring(0, dot);
+    String member = name.substring(dot + 1);
+    if (isStatic) {
+      if (member.equals("*")) {
+        customizer.addStaticStars(owner);
+      } else {
+        customizer.addStaticImport(alias != null ? alias : member, owner, member);
+      }
+    } else if (member.equals("*")) {
+      customizer.addStarImports(owner);
+    } else {
+      customizer.addImport(alias != null ? alias : member, name);
+    }
+  }
+}
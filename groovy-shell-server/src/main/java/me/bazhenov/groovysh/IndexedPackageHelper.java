@@ -0,0 +1,62 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.util.PackageHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+
+/**
+ * {@link PackageHelper} backed by a persistent {@link ClassIndex}. Index is loaded (or built) in a
+ * background thread, completion returns nothing until the index is ready.
+ * <p>
+ * Single instance is shared by all the shells of the service.
+ */
+class IndexedPackageHelper implements PackageHelper {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedPackageHelper.class);
+
+  private volatile ClassIndex index;
+
+  /**
+   * Starts loading the index in a background thread.
+   */
+  IndexedPackageHelper(File file, ClassLoader classLoader) {
+    Thread thread = new Thread(() -> load(file, classLoader), "GroovySh Import Index");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  private void load(File file, ClassLoader classLoader) {
+    long startedAt = System.currentTimeMillis();
+    try {
+      ClassIndex index = ClassIndex.loadOrBuild(file, classLoader);
+      log.info("Import completion index of {} classes is ready in {}ms", index.size(),
+          System.currentTimeMillis() - startedAt);
+      this.index = index;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to build import completion index", e);
+    }
+  }
+
+  @Override
+  public Set<String> getContents(String packageName) {
+    ClassIndex index = this.index;
+    if (index == null) {
+      return emptySet();
+    }
+    if (packageName.endsWith(".*")) {
+      packageName = packageName.substring(0, packageName.length() - 2);
+    }
+    return index.getContents(packageName);
+  }
+
+  @Override
+  public void reset() {
+  }
+}
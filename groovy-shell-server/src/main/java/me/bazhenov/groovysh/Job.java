@@ -0,0 +1,196 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.StackTraceUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Future;
+
+/**
+ * Script evaluated in background by {@link JobManager}. Job is not bound to the session it was
+ * submitted from, so it keeps running after the session is closed.
+ */
+class Job {
+
+  /**
+   * Maximum length of the result string kept after the job is complete
+   */
+  private static final int MAX_RESULT_LENGTH = 10_000;
+
+  enum State {
+    QUEUED, RUNNING, COMPLETED, FAILED, KILLED
+  }
+
+  private final int id;
+  private final String username;
+  private final String script;
+  private final long submittedAt = System.currentTimeMillis();
+  private final JobOutput output;
+  private Script compiled;
+  private GroovyClassLoader classLoader;
+  private SharedClassLoader sessionClassLoader;
+  private volatile State state = State.QUEUED;
+  private volatile long startedAt;
+  private volatile long finishedAt;
+  private volatile String result;
+  private volatile Future<?> future;
+  private volatile boolean killed;
+
+  Job(int id, String username, String script, Script compiled, GroovyClassLoader classLoader,
+      SharedClassLoader sessionClassLoader, JobOutput output) {
+    this.id = id;
+    this.username = username;
+    this.script = script;
+    this.compiled = compiled;
+    this.classLoader = classLoader;
+    this.sessionClassLoader = sessionClassLoader;
+    this.output = output;
+  }
+
+  void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  void run() {
+    Script compiled;
+    synchronized (this) {
+      if (state != State.QUEUED) {
+        return;
+      }
+      state = State.RUNNING;
+      startedAt = System.currentTimeMillis();
+      compiled = this.compiled;
+    }
+    State state;
+    String result;
+    PrintStream out = createPrintStream(output);
+    compiled.getBinding().setVariable("out", out);
+    compiled.getBinding().setVariable("err", out);
+    try {
+      Object value = compiled.run();
+      result = InvokerHelper.format(value, false, MAX_RESULT_LENGTH);
+      state = State.COMPLETED;
+    } catch (Throwable e) {
+      if (killed) {
+        state = State.KILLED;
+        result = null;
+      } else {
+        StringWriter trace = new StringWriter();
+        StackTraceUtils.deepSanitize(e).printStackTrace(new PrintWriter(trace));
+        state = State.FAILED;
+        result = trace.toString();
+      }
+    }
+    out.flush();
+    finish(state, result);
+  }
+
+  /**
+   * Interrupts the job, or cancels it if it is not started yet. Jobs are compiled with
+   * {@link groovy.transform.ThreadInterrupt}, so loops of the script respond to the interruption.
+   *
+   * @return false if the job is already complete
+   */
+  boolean kill() {
+    synchronized (this) {
+      if (state == State.QUEUED) {
+        finish(State.KILLED, null);
+        future.cancel(false);
+        return true;
+      }
+      if (state != State.RUNNING) {
+        return false;
+      }
+      killed = true;
+    }
+    future.cancel(true);
+    return true;
+  }
+
+  /**
+   * Releases resources of the job which was not accepted for execution.
+   */
+  void discard() {
+    finish(State.KILLED, null);
+  }
+
+  private static PrintStream createPrintStream(OutputStream out) {
+    try {
+      return new PrintStream(out, true, "utf8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private synchronized void finish(State state, String result) {
+    this.state = state;
+    this.result = result;
+    finishedAt = System.currentTimeMillis();
+    // Releasing the script along with all the session variables it references
+    compiled = null;
+    if (classLoader != null) {
+      GroovyClassLoaders.release(classLoader);
+      classLoader = null;
+    }
+    if (sessionClassLoader != null) {
+      sessionClassLoader.release();
+      sessionClassLoader = null;
+    }
+    output.close();
+  }
+
+  int getId() {
+    return id;
+  }
+
+  String getUsername() {
+    return username;
+  }
+
+  String getScript() {
+    return script;
+  }
+
+  long getSubmittedAt() {
+    return submittedAt;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  boolean isFinished() {
+    State state = this.state;
+    return state != State.QUEUED && state != State.RUNNING;
+  }
+
+  /**
+   * @return running time of the job in milliseconds, or 0 if job is not started yet
+   */
+  long getRunningTimeMillis() {
+    long startedAt = this.startedAt;
+    if (startedAt == 0) {
+      return 0;
+    }
+    long finishedAt = this.finishedAt;
+    return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+  }
+
+  /**
+   * @return string representation of the value returned by the script, or the stack trace if it
+   * has failed. Null if the job is not complete
+   */
+  String getResult() {
+    return result;
+  }
+
+  JobOutput getOutput() {
+    return output;
+  }
+}
@@ -0,0 +1,52 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.List;
+
+/**
+ * Base class of the commands managing background jobs (see {@link JobManager}).
+ */
+abstract class JobCommand extends CommandSupport {
+
+  JobCommand(Groovysh shell, String name, String shortcut) {
+    super(shell, name, shortcut);
+  }
+
+  JobManager getJobManager() {
+    JobManager jobManager = shell instanceof ManagedGroovysh
+        ? ((ManagedGroovysh) shell).getJobManager()
+        : null;
+    if (jobManager == null) {
+      fail("Background jobs are disabled");
+    }
+    return jobManager;
+  }
+
+  /**
+   * @return job with id given as the first argument, or the most recent job if there are no
+   * arguments
+   */
+  Job findJob(List<String> args) {
+    JobManager jobManager = getJobManager();
+    if (args.isEmpty()) {
+      Job job = jobManager.getLast();
+      if (job == null) {
+        fail("There are no jobs");
+      }
+      return job;
+    }
+    String id = args.get(0).startsWith("%") ? args.get(0).substring(1) : args.get(0);
+    Job job = null;
+    try {
+      job = jobManager.get(Integer.parseInt(id));
+    } catch (NumberFormatException e) {
+      fail("Wrong job id: " + args.get(0));
+    }
+    if (job == null) {
+      fail("No such job: " + args.get(0));
+    }
+    return job;
+  }
+}
@@ -0,0 +1,163 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs scripts submitted with <code>:bg</code> command in background.
+ * <p>
+ * Jobs are executed by a bounded service-wide pool, so they are not affected by the lifecycle of
+ * the session they are submitted from: job keeps running when the client disconnects, and any
+ * session can list jobs, follow the output of a job and kill it. Output of each job is kept in a
+ * ring buffer of a fixed size. A number of finished jobs is retained, so their output and result
+ * can be inspected later.
+ */
+class JobManager {
+
+  private static final int MAX_RETAINED_JOBS = 100;
+
+  private final ThreadPoolExecutor executor;
+  private final int outputBufferSize;
+  private final Supplier<? extends Binding> bindingFactory;
+  private final CompilerConfiguration configuration;
+  private final AtomicInteger lastId = new AtomicInteger();
+  private final ConcurrentNavigableMap<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+
+  /**
+   * @param maxJobs          maximum number of concurrently running jobs
+   * @param maxQueuedJobs    maximum number of jobs waiting for execution
+   * @param outputBufferSize size of the output buffer of a job in bytes
+   * @param bindingFactory   factory of bindings jobs are evaluated with
+   * @param configuration    compiler configuration, which should include
+   *                         {@link groovy.transform.ThreadInterrupt}, so jobs can be killed
+   */
+  JobManager(int maxJobs, int maxQueuedJobs, int outputBufferSize,
+      Supplier<? extends Binding> bindingFactory, CompilerConfiguration configuration) {
+    if (maxJobs <= 0) {
+      throw new IllegalArgumentException("Wrong max jobs number");
+    }
+    BlockingQueue<Runnable> queue = maxQueuedJobs > 0
+        ? new ArrayBlockingQueue<>(maxQueuedJobs)
+        : new SynchronousQueue<>();
+    AtomicInteger threadNumber = new AtomicInteger();
+    executor = new ThreadPoolExecutor(maxJobs, maxJobs, 60, SECONDS, queue, r -> {
+      Thread thread = new Thread(r, "GroovySh Job Thread-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    this.outputBufferSize = outputBufferSize;
+    this.bindingFactory = bindingFactory;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Compiles a script and schedules it for execution. Script is compiled right away, so
+   * compilation errors are reported to the caller.
+   *
+   * @param script      script text
+   * @param imports     imports of the session
+   * @param username    name of the user submitting the job
+   * @param classLoader reference to the class loader of the session, so classes defined in the
+   *                    session are visible. Reference is released when the job is finished
+   * @param variables   variables of the session, copied to the binding of the job
+   * @throws RejectedExecutionException if there are too many jobs already
+   */
+  Job submit(String script, List<String> imports, String username, SharedClassLoader classLoader,
+      Map<String, Object> variables) {
+    Binding binding = bindingFactory.get();
+    for (Map.Entry<String, Object> variable : variables.entrySet()) {
+      binding.setVariable(variable.getKey(), variable.getValue());
+    }
+    GroovyShell shell = new GroovyShell(classLoader.get(), binding,
+        ImportSpecs.withImports(configuration, imports));
+    Script compiled;
+    try {
+      compiled = shell.parse(script, "BackgroundJob.groovy");
+    } catch (RuntimeException e) {
+      GroovyClassLoaders.release(shell.getClassLoader());
+      classLoader.release();
+      throw e;
+    }
+    int id = lastId.incrementAndGet();
+    Job job = new Job(id, username, script, compiled, shell.getClassLoader(), classLoader,
+        new JobOutput(outputBufferSize));
+    try {
+      job.setFuture(executor.submit(() -> run(job)));
+    } catch (RejectedExecutionException e) {
+      job.discard();
+      throw new RejectedExecutionException("Too many background jobs", e);
+    }
+    jobs.put(id, job);
+    evictFinishedJobs();
+    return job;
+  }
+
+  private static void run(Job job) {
+    Thread thread = Thread.currentThread();
+    String name = thread.getName();
+    thread.setName("GroovySh Job " + job.getId());
+    try {
+      job.run();
+    } finally {
+      thread.setName(name);
+    }
+  }
+
+  private void evictFinishedJobs() {
+    List<Job> finished = new ArrayList<>();
+    for (Job job : jobs.values()) {
+      if (job.isFinished()) {
+        finished.add(job);
+      }
+    }
+    for (int i = 0; i < finished.size() - MAX_RETAINED_JOBS; i++) {
+      jobs.remove(finished.get(i).getId());
+    }
+  }
+
+  /**
+   * @return job with a given id, or null if there is no such job
+   */
+  Job get(int id) {
+    return jobs.get(id);
+  }
+
+  /**
+   * @return most recently submitted job, or null if there are no jobs
+   */
+  Job getLast() {
+    Map.Entry<Integer, Job> entry = jobs.lastEntry();
+    return entry != null ? entry.getValue() : null;
+  }
+
+  /**
+   * @return active and retained jobs ordered by id
+   */
+  List<Job> getJobs() {
+    return new ArrayList<>(jobs.values());
+  }
+
+  /**
+   * Kills all the jobs and stops the pool.
+   */
+  void shutdown() {
+    for (Job job : jobs.values()) {
+      job.kill();
+    }
+    executor.shutdownNow();
+    jobs.clear();
+  }
+}
@@ -0,0 +1,92 @@
+package me.bazhenov.groovysh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Output of a background job kept in a ring buffer of a fixed size, so a chatty job can't exhaust
+ * memory. Only the most recent output is retained.
+ * <p>
+ * Readers track their position as the number of bytes written since the job has started, so any
+ * number of sessions can follow the output independently.
+ */
+class JobOutput extends OutputStream {
+
+  private final byte[] buffer;
+  private long written;
+  private boolean closed;
+
+  JobOutput(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Wrong capacity");
+    }
+    buffer = new byte[capacity];
+  }
+
+  @Override
+  public void write(int b) {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) {
+    if (len > buffer.length) {
+      // Only the tail fits in the buffer
+      written += len - buffer.length;
+      off += len - buffer.length;
+      len = buffer.length;
+    }
+    int start = (int) (written % buffer.length);
+    int head = Math.min(len, buffer.length - start);
+    System.arraycopy(b, off, buffer, start, head);
+    System.arraycopy(b, off + head, buffer, 0, len - head);
+    written += len;
+    notifyAll();
+  }
+
+  /**
+   * Marks the output as complete, so readers stop waiting for it.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  synchronized long getWritten() {
+    return written;
+  }
+
+  synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Copies output written since a given position. If part of it is already overwritten, the
+   * retained part is copied. Output is copied to memory, so the job is not blocked by a slow
+   * reader.
+   *
+   * @return position of the end of the copied output
+   */
+  synchronized long copyTo(long position, ByteArrayOutputStream out) {
+    long start = Math.max(position, written - buffer.length);
+    if (start >= written) {
+      return written;
+    }
+    int from = (int) (start % buffer.length);
+    int len = (int) (written - start);
+    int head = Math.min(len, buffer.length - from);
+    out.write(buffer, from, head);
+    out.write(buffer, 0, len - head);
+    return written;
+  }
+
+  /**
+   * Waits until output is written past a given position or the output is closed.
+   */
+  synchronized void await(long position, long timeoutMillis) throws InterruptedException {
+    if (written <= position && !closed) {
+      wait(timeoutMillis);
+    }
+  }
+}
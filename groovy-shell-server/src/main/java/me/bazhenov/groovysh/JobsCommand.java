@@ -0,0 +1,60 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <code>:jobs</code> command listing background jobs.
+ */
+class JobsCommand extends JobCommand {
+
+  private static final int MAX_SCRIPT_LENGTH = 40;
+
+  JobsCommand(Groovysh shell) {
+    super(shell, ":jobs", ":j");
+  }
+
+  @Override
+  public String getDescription() {
+    return "List background jobs";
+  }
+
+  @Override
+  public String getUsage() {
+    return "";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Lists active and recently finished background jobs of all users";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    List<Job> jobs = getJobManager().getJobs();
+    if (jobs.isEmpty()) {
+      io.out.println("There are no jobs");
+      return null;
+    }
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    io.out.println(String.format("%5s  %-9s  %-19s  %10s  %10s  %-12s  %s", "ID", "STATE",
+        "SUBMITTED", "TIME, ms", "OUTPUT", "USER", "SCRIPT"));
+    for (Job job : jobs) {
+      io.out.println(String.format("%5d  %-9s  %-19s  %10d  %10d  %-12s  %s", job.getId(),
+          job.getState(), format.format(new Date(job.getSubmittedAt())),
+          job.getRunningTimeMillis(), job.getOutput().getWritten(), job.getUsername(),
+          abbreviate(job.getScript())));
+    }
+    return null;
+  }
+
+  private static String abbreviate(String script) {
+    String line = script.trim().replaceAll("\\s+", " ");
+    return line.length() > MAX_SCRIPT_LENGTH
+        ? line.substring(0, MAX_SCRIPT_LENGTH - 3) + "..."
+        : line;
+  }
+}
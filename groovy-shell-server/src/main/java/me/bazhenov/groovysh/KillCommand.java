@@ -0,0 +1,44 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.util.List;
+
+/**
+ * <code>:kill</code> command stopping a background job.
+ */
+class KillCommand extends JobCommand {
+
+  KillCommand(Groovysh shell) {
+    super(shell, ":kill", ":k");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Kill a background job";
+  }
+
+  @Override
+  public String getUsage() {
+    return "<job id>";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Interrupts a running background job or cancels a queued one";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    if (args.isEmpty()) {
+      fail("Job id is required");
+    }
+    Job job = findJob(args);
+    if (job.kill()) {
+      io.out.println("Job " + job.getId() + " is interrupted");
+    } else {
+      io.out.println("Job " + job.getId() + " is already " + job.getState());
+    }
+    return null;
+  }
+}
@@ -0,0 +1,149 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.MissingPropertyException;
+
+import java.util.*;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Binding which keeps variables of a client session on top of a scope shared by all sessions.
+ * <p>
+ * Variables are looked up in the session scope first, then in the shared scope. Variables set from
+ * the shell always go to the session scope, so the shared scope is never modified by a session and
+ * its changes are visible to all sessions right away. Subclasses may provide additional variables
+ * which are resolved lazily when referenced for the first time (see
+ * {@link #isLazyVariable(String)}).
+ * <p>
+ * {@link Map#keySet()} of the {@link #getVariables() variables map} lists lazy variables as well
+ * (so groovysh can complete them), but {@link Map#get(Object)} and {@link Map#entrySet()} expose
+ * only variables already resolved.
+ */
+public class LayeredBinding extends Binding {
+
+  private final Map<String, Object> shared;
+  private final Map<String, Object> session = new LinkedHashMap<>();
+  private final Map<String, Object> variables = new LayeredVariables();
+
+  /**
+   * @param shared shared scope. Binding never modifies it, so it may be a read only view
+   */
+  public LayeredBinding(Map<String, Object> shared) {
+    this.shared = shared;
+  }
+
+  @Override
+  public Object getVariable(String name) {
+    if (session.containsKey(name)) {
+      return session.get(name);
+    }
+    Object value = shared.get(name);
+    if (value != null || shared.containsKey(name)) {
+      return value;
+    }
+    if (isLazyVariable(name)) {
+      value = resolveLazyVariable(name);
+      session.put(name, value);
+      return value;
+    }
+    throw new MissingPropertyException(name, getClass());
+  }
+
+  @Override
+  public void setVariable(String name, Object value) {
+    session.put(name, value);
+  }
+
+  @Override
+  public void removeVariable(String name) {
+    session.remove(name);
+  }
+
+  @Override
+  public boolean hasVariable(String name) {
+    return variables.containsKey(name);
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Map getVariables() {
+    return variables;
+  }
+
+  /**
+   * @return true if variable with a given name is not resolved yet, but can be resolved with
+   * {@link #resolveLazyVariable(String)}
+   */
+  protected boolean isLazyVariable(String name) {
+    return false;
+  }
+
+  /**
+   * @return names of all the variables which can be resolved lazily
+   */
+  protected Collection<String> getLazyVariableNames() {
+    return emptySet();
+  }
+
+  /**
+   * Resolves lazy variable. Resolved value is stored in the session scope.
+   *
+   * @throws MissingPropertyException if variable can not be resolved
+   */
+  protected Object resolveLazyVariable(String name) {
+    throw new MissingPropertyException(name, getClass());
+  }
+
+  private class LayeredVariables extends AbstractMap<String, Object> {
+
+    @Override
+    public Object get(Object key) {
+      return session.containsKey(key)
+          ? session.get(key)
+          : shared.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return session.containsKey(key) || shared.containsKey(key)
+          || (key instanceof String && isLazyVariable((String) key));
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+      return session.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+      return session.remove(key);
+    }
+
+    @Override
+    public void clear() {
+      session.clear();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      Map<String, Object> snapshot = new LinkedHashMap<>(shared);
+      snapshot.putAll(session);
+      return unmodifiableMap(snapshot).entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+      Set<String> names = new LinkedHashSet<>(shared.keySet());
+      names.addAll(session.keySet());
+      for (String name : getLazyVariableNames()) {
+        if (isLazyVariable(name)) {
+          names.add(name);
+        }
+      }
+      return unmodifiableSet(names);
+    }
+  }
+}
@@ -0,0 +1,378 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.DelegatingMetaClass;
+import groovy.lang.GroovySystem;
+import groovy.lang.MissingPropertyException;
+import org.apache.groovy.groovysh.Command;
+import org.apache.groovy.groovysh.Groovysh;
+import org.apache.groovy.groovysh.InteractiveShellRunner;
+import org.apache.groovy.groovysh.Interpreter;
+import org.apache.groovy.groovysh.commands.RecordCommand;
+import org.apache.groovy.groovysh.util.DefaultCommandsRegistrar;
+import org.apache.groovy.groovysh.util.PackageHelper;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.tools.shell.IO;
+
+import java.util.List;
+import java.util.prefs.PreferenceChangeListener;
+import java.util.prefs.Preferences;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Locale.ROOT;
+
+/**
+ * {@link Groovysh} which accounts each evaluated command in the statistics of the client session,
+ * enforces command budgets with {@link CommandWatchdog} and per-command output limit with
+ * {@link OutputLimiter}, and records commands in the {@link AuditLog}.
+ * <p>
+ * Each shell has its own copy of the compiler configuration, which is changed by
+ * {@link #setCompileMode(CompileMode)}.
+ */
+class ManagedGroovysh extends Groovysh {
+
+  /**
+   * Node backing groovysh preferences (see {@link org.codehaus.groovy.tools.shell.util.Preferences})
+   */
+  private static final Preferences PREFERENCES =
+      Preferences.userRoot().node("/org/codehaus/groovy/tools/shell");
+
+  static {
+    GroovySystem.getMetaClassRegistry()
+        .setMetaClass(RecordCommand.class, new RecordCommandMetaClass());
+  }
+
+  private volatile SessionStats stats;
+  private volatile CommandWatchdog watchdog;
+  private volatile OutputLimiter outputLimiter;
+  private volatile AuditLog auditLog;
+  private volatile StoredHistory storedHistory;
+  private volatile JobManager jobManager;
+  private volatile FanOutClient fanOutClient;
+  private volatile StackSampler stackSampler;
+  private volatile BenchmarkRunner benchmarkRunner;
+  private final CompilerConfiguration configuration;
+  private final CompilerConfiguration baseConfiguration;
+  private volatile CompileMode compileMode = CompileMode.DYNAMIC;
+  private final SharedClassLoader classLoader = new SharedClassLoader(getInterp().getClassLoader());
+  private String currentLine;
+
+  ManagedGroovysh(ClassLoader classLoader, Binding binding, IO io,
+      CompilerConfiguration configuration) {
+    this(classLoader, binding, io, new CompilerConfiguration(configuration), configuration);
+  }
+
+  private ManagedGroovysh(ClassLoader classLoader, Binding binding, IO io,
+      CompilerConfiguration configuration, CompilerConfiguration baseConfiguration) {
+    super(classLoader, binding, io, new DefaultRegistrar(), configuration);
+    this.configuration = configuration;
+    this.baseConfiguration = baseConfiguration;
+    // Copy constructor of the configuration doesn't copy customizers
+    CompileMode.DYNAMIC.configure(configuration, baseConfiguration, binding);
+  }
+
+  void setStats(SessionStats stats) {
+    this.stats = stats;
+  }
+
+  SessionStats getStats() {
+    return stats;
+  }
+
+  void setWatchdog(CommandWatchdog watchdog) {
+    this.watchdog = watchdog;
+  }
+
+  void setOutputLimiter(OutputLimiter outputLimiter) {
+    this.outputLimiter = outputLimiter;
+  }
+
+  void setAuditLog(AuditLog auditLog) {
+    this.auditLog = auditLog;
+  }
+
+  void setJobManager(JobManager jobManager) {
+    this.jobManager = jobManager;
+  }
+
+  JobManager getJobManager() {
+    return jobManager;
+  }
+
+  /**
+   * @return class loader of the session, which is kept until the returned reference is released
+   */
+  SharedClassLoader retainClassLoader() {
+    return classLoader.retain();
+  }
+
+  void setFanOutClient(FanOutClient fanOutClient) {
+    this.fanOutClient = fanOutClient;
+  }
+
+  FanOutClient getFanOutClient() {
+    return fanOutClient;
+  }
+
+  void setStackSampler(StackSampler stackSampler) {
+    this.stackSampler = stackSampler;
+  }
+
+  StackSampler getStackSampler() {
+    return stackSampler;
+  }
+
+  void setBenchmarkRunner(BenchmarkRunner benchmarkRunner) {
+    this.benchmarkRunner = benchmarkRunner;
+  }
+
+  BenchmarkRunner getBenchmarkRunner() {
+    return benchmarkRunner;
+  }
+
+  /**
+   * Sets the mode code evaluated in the shell is compiled in.
+   */
+  void setCompileMode(CompileMode compileMode) {
+    compileMode.configure(configuration, baseConfiguration, getInterp().getContext());
+    this.compileMode = compileMode;
+  }
+
+  CompileMode getCompileMode() {
+    return compileMode;
+  }
+
+  /**
+   * @return arguments of the command being executed, read from the original line as commands are
+   * given arguments with quotes removed
+   */
+  CommandArguments getCurrentArguments() {
+    return new CommandArguments(currentLine);
+  }
+
+  /**
+   * Sets history used instead of the history file in the user state directory. Should be called
+   * before the shell is run.
+   */
+  void setStoredHistory(StoredHistory storedHistory) {
+    this.storedHistory = storedHistory;
+  }
+
+  /**
+   * Called by {@link Groovysh#run(String)} once the runner is set up, so it is the place to replace
+   * the file history created by groovysh.
+   */
+  @Override
+  public void displayWelcomeBanner(InteractiveShellRunner runner) {
+    StoredHistory storedHistory = this.storedHistory;
+    if (storedHistory != null) {
+      setHistory(storedHistory);
+      runner.getReader().setHistory(storedHistory);
+    }
+    super.displayWelcomeBanner(runner);
+  }
+
+  /**
+   * Releases resources held by the shell once client session is over: console reader thread,
+   * session variables and classes compiled from the evaluated code.
+   */
+  void release() {
+    stopRecording();
+    stats = null;
+    watchdog = null;
+    outputLimiter = null;
+    auditLog = null;
+    storedHistory = null;
+    jobManager = null;
+    fanOutClient = null;
+    stackSampler = null;
+    benchmarkRunner = null;
+    if (getRunner() != null) {
+      // Stops jline thread reading the input, otherwise it keeps the whole shell reachable
+      getRunner().getReader().close();
+    }
+    unregisterPackageHelper();
+    getInterp().getContext().getVariables().clear();
+    // Classes are released once background jobs submitted from the session are finished as well
+    classLoader.release();
+  }
+
+  private void stopRecording() {
+    Command command = getRegistry().find(RecordCommand.COMMAND_NAME);
+    if (command instanceof RecordCommand && ((RecordCommand) command).isRecording()) {
+      ((Closure<?>) ((RecordCommand) command).getDo_stop()).call(emptyList());
+    }
+  }
+
+  /**
+   * Replaces the package helper used for import completion. Should be called before the shell is
+   * run, as completers capture package helper once created.
+   */
+  @Override
+  public void setPackageHelper(PackageHelper packageHelper) {
+    unregisterPackageHelper();
+    super.setPackageHelper(packageHelper);
+  }
+
+  private void unregisterPackageHelper() {
+    if (getPackageHelper() instanceof PreferenceChangeListener) {
+      // Default package helper is registered as a listener of global groovysh preferences
+      try {
+        PREFERENCES.removePreferenceChangeListener((PreferenceChangeListener) getPackageHelper());
+      } catch (IllegalArgumentException e) {
+        // Listener was not registered
+      }
+    }
+  }
+
+  @Override
+  public Object execute(String line) {
+    long startedAt = System.nanoTime();
+    currentLine = line;
+    OutputLimiter outputLimiter = this.outputLimiter;
+    if (outputLimiter != null) {
+      outputLimiter.commandStarted();
+    }
+    CommandWatchdog watchdog = this.watchdog;
+    CommandWatchdog.Watch watch = watchdog != null ? watchdog.watch() : null;
+    SessionStats stats = this.stats;
+    long outputBytes = stats != null ? stats.getOutputBytes() : 0;
+    String violation = null;
+    try {
+      return executeInCompileMode(line);
+    } catch (Throwable e) {
+      violation = watch != null ? watch.done() : null;
+      if (violation == null) {
+        throw e;
+      }
+      // Command was interrupted or stopped forcibly by watchdog, session should go on
+      return null;
+    } finally {
+      if (watch != null && violation == null) {
+        violation = watch.done();
+      }
+      try {
+        long nanos = System.nanoTime() - startedAt;
+        if (stats != null) {
+          stats.commandEvaluated(nanos, violation != null);
+          AuditLog auditLog = this.auditLog;
+          if (auditLog != null) {
+            auditLog.commandEvaluated(stats, line, nanos, stats.getOutputBytes() - outputBytes,
+                violation != null);
+          }
+        }
+      } finally {
+        if (outputLimiter != null) {
+          outputLimiter.commandFinished();
+        }
+      }
+      if (violation != null) {
+        getIo().err.println("Command aborted: exceeded " + violation);
+        getIo().err.flush();
+      }
+    }
+  }
+
+  /**
+   * Displays an error of a command. Groovysh installs a method pointer to its own private
+   * <code>displayError()</code> as the error handler, which can't be resolved on a subclass.
+   */
+  protected void displayError(Throwable cause) {
+    if (cause instanceof MissingPropertyException) {
+      Class<?> type = ((MissingPropertyException) cause).getType();
+      if (type != null && Interpreter.getSCRIPT_FILENAME().equals(type.getCanonicalName())) {
+        getIo().err.println("@|bold,red Unknown property|@: "
+            + ((MissingPropertyException) cause).getProperty());
+        return;
+      }
+    }
+    getErrorHook().call(cause);
+  }
+
+  /**
+   * Executes a line in the current compile mode. Code which fails to compile in a static mode is
+   * evaluated dynamically.
+   */
+  private Object executeInCompileMode(String line) {
+    CompileMode compileMode = this.compileMode;
+    if (compileMode == CompileMode.DYNAMIC) {
+      return super.execute(line);
+    }
+    try {
+      return super.execute(line);
+    } catch (MultipleCompilationErrorsException e) {
+      // Commands are not executed twice, as they might have done something before compilation
+      if (e.getErrorCollector().getConfiguration() != configuration || isExecutable(line)) {
+        throw e;
+      }
+      getIo().err.println("@|yellow Unable to compile in " + compileMode.name().toLowerCase(ROOT)
+          + " mode, evaluating dynamically:|@");
+      getIo().err.println(e.getMessage().replaceFirst("^startup failed:\\s*", "").trim());
+      getIo().err.flush();
+      CompileMode.DYNAMIC.configure(configuration, baseConfiguration, getInterp().getContext());
+      try {
+        return super.execute(line);
+      } finally {
+        compileMode.configure(configuration, baseConfiguration, getInterp().getContext());
+      }
+    }
+  }
+
+  /**
+   * Registers commands of {@link DefaultCommandsRegistrar} and commands of the server.
+   */
+  @SuppressWarnings("serial")
+  private static class DefaultRegistrar extends Closure<Object> {
+
+    DefaultRegistrar() {
+      super(ManagedGroovysh.class);
+    }
+
+    @Override
+    public Object call(Object... args) {
+      Groovysh shell = (Groovysh) args[0];
+      new DefaultCommandsRegistrar(shell).register();
+      List<Command> commands = asList(
+          new FindCommand(shell),
+          new BackgroundCommand(shell),
+          new JobsCommand(shell),
+          new WaitCommand(shell),
+          new KillCommand(shell),
+          new FanOutCommand(shell),
+          new ProfileCommand(shell),
+          new BenchmarkCommand(shell),
+          new CompileCommand(shell));
+      for (Command command : commands) {
+        shell.register(command);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Meta class of <code>:record</code> command which doesn't let the command install a JVM
+   * shutdown hook. The hook references the command, so the shell (and all the classes compiled in
+   * it) would never be garbage collected. Recording is stopped when the shell is released instead.
+   */
+  private static class RecordCommandMetaClass extends DelegatingMetaClass {
+
+    RecordCommandMetaClass() {
+      super(RecordCommand.class);
+      initialize();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object invokeMethod(Class sender, Object receiver, String methodName,
+        Object[] arguments, boolean isCallToSuper, boolean fromInsideClass) {
+      if ("addShutdownHook".equals(methodName)) {
+        return null;
+      }
+      return super.invokeMethod(sender, receiver, methodName, arguments, isCallToSuper,
+          fromInsideClass);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package me.bazhenov.groovysh;
+
+import java.io.InterruptedIOException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Limits output of a client session. Shared by all output streams of the session.
+ * <p>
+ * Rate limit is enforced with a token bucket (up to a second worth of output can be written in a
+ * burst): writer exceeding the rate is put to sleep, so the backpressure is applied to the session
+ * thread and not to the SSH channel. Output of a command exceeding per-command limit is truncated.
+ */
+class OutputLimiter {
+
+  private final long bytesPerSecond;
+  private final long bytesPerCommand;
+  private final SessionStats stats;
+
+  private long available;
+  private long refilledAt = System.nanoTime();
+  private boolean inCommand;
+  private long commandBytes;
+  private boolean truncated;
+
+  /**
+   * @param bytesPerSecond  maximum output rate, 0 means no limit
+   * @param bytesPerCommand maximum output of a single command, 0 means no limit
+   */
+  OutputLimiter(long bytesPerSecond, long bytesPerCommand, SessionStats stats) {
+    this.bytesPerSecond = bytesPerSecond;
+    this.bytesPerCommand = bytesPerCommand;
+    this.stats = stats;
+    this.available = bytesPerSecond;
+  }
+
+  synchronized void commandStarted() {
+    inCommand = true;
+    commandBytes = 0;
+    truncated = false;
+  }
+
+  synchronized void commandFinished() {
+    inCommand = false;
+  }
+
+  /**
+   * Requests permission to write given number of bytes. Blocks if output rate is exceeded.
+   *
+   * @return number of bytes allowed to be written, less than requested if output of the command
+   * should be truncated
+   */
+  int acquire(int len) throws InterruptedIOException {
+    long waitNanos;
+    synchronized (this) {
+      if (inCommand && bytesPerCommand > 0) {
+        len = (int) Math.max(0, Math.min(len, bytesPerCommand - commandBytes));
+        commandBytes += len;
+      }
+      if (bytesPerSecond <= 0 || len == 0) {
+        return len;
+      }
+      long now = System.nanoTime();
+      long refill = (now - refilledAt) * bytesPerSecond / SECONDS.toNanos(1);
+      if (refill > 0) {
+        available = Math.min(bytesPerSecond, available + refill);
+        refilledAt = now;
+      }
+      available -= len;
+      waitNanos = available < 0 ? -available * SECONDS.toNanos(1) / bytesPerSecond : 0;
+    }
+    if (waitNanos > 0) {
+      try {
+        NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for output rate limit");
+      }
+      stats.outputThrottled(waitNanos);
+    }
+    return len;
+  }
+
+  /**
+   * @return true if truncation marker should be written (once per command)
+   */
+  synchronized boolean truncate() {
+    if (truncated) {
+      return false;
+    }
+    truncated = true;
+    stats.outputTruncated();
+    return true;
+  }
+
+  long getBytesPerCommand() {
+    return bytesPerCommand;
+  }
+
+  synchronized void written(long bytes, long blockedNanos) {
+    stats.outputWritten(bytes, blockedNanos);
+  }
+}
@@ -0,0 +1,179 @@
+package me.bazhenov.groovysh;
+
+import org.apache.groovy.groovysh.CommandSupport;
+import org.apache.groovy.groovysh.Groovysh;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * <code>:profile</code> command sampling stack traces of the evaluated script or of the
+ * application threads with {@link StackSampler}.
+ */
+class ProfileCommand extends CommandSupport {
+
+  private static final long DEFAULT_INTERVAL_MILLIS = 20;
+  private static final int DEFAULT_TOP_FRAMES = 20;
+  private static final long DEFAULT_DURATION_SECONDS = 10;
+
+  ProfileCommand(Groovysh shell) {
+    super(shell, ":profile", ":pr");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Profile a script or application threads";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[-i millis] [-n frames] [-o file] [-r] [-t thread-regex [-d seconds]] [script]";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Samples stack traces while a script is evaluated (or of the threads with names "
+        + "matching -t regex for -d seconds) and prints frames most often seen on top of the "
+        + "stack. -i sets sampling interval (" + DEFAULT_INTERVAL_MILLIS + "ms by default), "
+        + "-n sets the number of printed frames, -o saves collapsed stacks for flame graph "
+        + "tools, -r records runnable threads only";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    ManagedGroovysh shell = (ManagedGroovysh) this.shell;
+    StackSampler sampler = shell.getStackSampler();
+    if (sampler == null) {
+      fail("Profiler is not available");
+    }
+    long interval = DEFAULT_INTERVAL_MILLIS;
+    int topFrames = DEFAULT_TOP_FRAMES;
+    long durationSeconds = DEFAULT_DURATION_SECONDS;
+    File output = null;
+    Pattern threads = null;
+    boolean runnableOnly = false;
+
+    CommandArguments arguments = shell.getCurrentArguments();
+    while (arguments.hasOption()) {
+      String option = arguments.next();
+      if (option.equals("-r")) {
+        runnableOnly = true;
+        continue;
+      }
+      String value = arguments.next();
+      if (value.isEmpty()) {
+        fail("Value of " + option + " is required");
+      }
+      try {
+        switch (option) {
+          case "-i":
+            interval = parsePositive(value);
+            break;
+          case "-n":
+            topFrames = (int) parsePositive(value);
+            break;
+          case "-d":
+            durationSeconds = parsePositive(value);
+            break;
+          case "-o":
+            output = new File(value);
+            break;
+          case "-t":
+            threads = Pattern.compile(value);
+            break;
+          default:
+            fail("Unknown option: " + option);
+        }
+      } catch (NumberFormatException | PatternSyntaxException e) {
+        fail("Wrong value of " + option + ": " + value);
+      }
+    }
+    String script = arguments.getRest();
+    if (threads == null && script.isEmpty()) {
+      fail("Script or -t option is required");
+    }
+
+    StackSampler.Profile profile;
+    if (threads != null) {
+      profile = sampler.start(StackSampler.threadsMatching(threads), interval, runnableOnly, null,
+          true);
+    } else {
+      long sessionThread = Thread.currentThread().getId();
+      // Frames of the shell itself are dropped from samples
+      profile = sampler.start(() -> new long[]{sessionThread}, interval, runnableOnly,
+          ProfileCommand.class.getName(), false);
+    }
+    Object result = null;
+    try {
+      if (!script.isEmpty()) {
+        result = evaluate(script);
+      } else {
+        Thread.sleep(SECONDS.toMillis(durationSeconds));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fail("Interrupted");
+    } finally {
+      profile.stop();
+      report(profile, topFrames, output);
+    }
+    if (!script.isEmpty()) {
+      shell.getResultHook().call(result);
+    }
+    return null;
+  }
+
+  private Object evaluate(String script) {
+    List<String> buffer = new ArrayList<>();
+    for (String name : shell.getImports()) {
+      buffer.add("import " + name);
+    }
+    buffer.add(script);
+    return shell.getInterp().evaluate(buffer);
+  }
+
+  private void report(StackSampler.Profile profile, int topFrames, File output) {
+    long samples = profile.getSamples();
+    long duration = profile.getDurationNanos();
+    long samplerCpu = profile.getSamplerCpuNanos();
+    io.out.println(String.format("%d samples in %.1fs, sampling interval %dms, sampler CPU %dms "
+            + "(%.2f%%)", samples, duration / 1e9, profile.getIntervalMillis(),
+        NANOSECONDS.toMillis(samplerCpu), samplerCpu * 100.0 / Math.max(duration, 1)));
+    if (profile.getSkippedTicks() > 0) {
+      io.out.println(profile.getSkippedTicks() + " ticks skipped to keep sampler CPU under 1%");
+    }
+    if (samples > 0) {
+      io.out.println(String.format("%7s %7s  %s", "SELF", "TOTAL", "FRAME"));
+      for (Map.Entry<String, long[]> frame : profile.getTopFrames(topFrames)) {
+        io.out.println(String.format("%6.1f%% %6.1f%%  %s", frame.getValue()[0] * 100.0 / samples,
+            frame.getValue()[1] * 100.0 / samples, frame.getKey()));
+      }
+    }
+    if (output != null) {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(output), UTF_8))) {
+        profile.writeCollapsed(writer);
+        io.out.println("Collapsed stacks are saved to " + output.getAbsolutePath());
+      } catch (IOException e) {
+        io.err.println("Unable to save profile: " + e.getMessage());
+      }
+    }
+    io.out.flush();
+  }
+
+  private static long parsePositive(String value) {
+    long result = Long.parseLong(value);
+    if (result <= 0) {
+      throw new NumberFormatException();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,272 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Closure;
+import groovy.lang.Range;
+import jline.Terminal;
+import jline.console.ConsoleReader;
+import org.apache.groovy.groovysh.Groovysh;
+import org.apache.groovy.groovysh.InteractiveShellRunner;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.tools.shell.IO;
+import org.codehaus.groovy.tools.shell.util.Preferences;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Result hook printing evaluation results the way groovysh does (<code>===&gt; [1, 2, 3]</code>),
+ * but without building the whole string in memory.
+ * <p>
+ * Collections, maps, arrays and iterators are written element by element. Output is cut once the
+ * number of elements of a container or the total number of characters exceeds the limits. If
+ * paging is enabled, output is paused every terminal page until the user presses a key.
+ */
+@SuppressWarnings("serial")
+class ResultRenderer extends Closure<Object> {
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final String MORE_PROMPT = "--More--";
+
+  private final Groovysh shell;
+  private final int maxElements;
+  private final long maxChars;
+  private final boolean paging;
+
+  /**
+   * @param maxElements maximum number of elements printed for a container, 0 means no limit
+   * @param maxChars    maximum number of characters printed for a result, 0 means no limit
+   * @param paging      true if output should be paused every terminal page
+   */
+  ResultRenderer(Groovysh shell, int maxElements, long maxChars, boolean paging) {
+    super(shell);
+    this.shell = shell;
+    this.maxElements = maxElements;
+    this.maxChars = maxChars;
+    this.paging = paging;
+  }
+
+  @Override
+  public Object call(Object... args) {
+    IO io = shell.getIo();
+    if (io.isQuiet() || !(io.isVerbose() || Preferences.getShowLastResult())) {
+      return null;
+    }
+    io.out.print("@|bold ===>|@ ");
+    Output out = new Output(io.out, pager());
+    try {
+      out.column = "===> ".length();
+      render(args.length > 0 ? args[0] : null, out);
+    } catch (Stop e) {
+      if (e.truncated) {
+        io.out.print(" ...");
+      }
+    }
+    io.out.println();
+    io.out.flush();
+    return null;
+  }
+
+  private Pager pager() {
+    InteractiveShellRunner runner = shell.getRunner();
+    if (!paging || runner == null || runner.getReader() == null) {
+      return null;
+    }
+    return new Pager(runner.getReader());
+  }
+
+  private void render(Object value, Output out) {
+    if (value instanceof Range) {
+      out.append(value.toString());
+    } else if (value instanceof Map) {
+      renderMap((Map<?, ?>) value, out);
+    } else if (value instanceof Collection) {
+      renderElements(((Collection<?>) value).iterator(), value, "(this Collection)", out);
+    } else if (value instanceof Iterator) {
+      renderElements((Iterator<?>) value, value, "(this Iterator)", out);
+    } else if (value != null && value.getClass().isArray()) {
+      renderArray(value, out);
+    } else if (value instanceof CharSequence) {
+      out.append((CharSequence) value);
+    } else {
+      out.append(InvokerHelper.toString(value));
+    }
+  }
+
+  private void renderElements(Iterator<?> it, Object self, String selfName, Output out) {
+    out.append("[");
+    int count = 0;
+    while (it.hasNext()) {
+      if (count > 0) {
+        out.append(", ");
+      }
+      if (maxElements > 0 && count >= maxElements) {
+        out.append("...");
+        break;
+      }
+      Object element = it.next();
+      if (element == self) {
+        out.append(selfName);
+      } else {
+        render(element, out);
+      }
+      count++;
+    }
+    out.append("]");
+  }
+
+  private void renderMap(Map<?, ?> map, Output out) {
+    if (map.isEmpty()) {
+      out.append("[:]");
+      return;
+    }
+    out.append("[");
+    int count = 0;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (count > 0) {
+        out.append(", ");
+      }
+      if (maxElements > 0 && count >= maxElements) {
+        out.append("...");
+        break;
+      }
+      renderMapPart(entry.getKey(), map, out);
+      out.append(":");
+      renderMapPart(entry.getValue(), map, out);
+      count++;
+    }
+    out.append("]");
+  }
+
+  private void renderMapPart(Object value, Map<?, ?> map, Output out) {
+    if (value == map) {
+      out.append("(this Map)");
+    } else {
+      render(value, out);
+    }
+  }
+
+  private void renderArray(Object array, Output out) {
+    out.append("[");
+    int length = Array.getLength(array);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        out.append(", ");
+      }
+      if (maxElements > 0 && i >= maxElements) {
+        out.append("...");
+        break;
+      }
+      render(Array.get(array, i), out);
+    }
+    out.append("]");
+  }
+
+  /**
+   * Thrown to stop rendering when the limit is reached or the user quits paging.
+   */
+  @SuppressWarnings("serial")
+  private static class Stop extends RuntimeException {
+
+    private final boolean truncated;
+
+    Stop(boolean truncated) {
+      super(null, null, false, false);
+      this.truncated = truncated;
+    }
+  }
+
+  /**
+   * Writer accounting characters, lines and columns of the output.
+   */
+  private class Output {
+
+    private final PrintWriter out;
+    private final Pager pager;
+    private long chars;
+    private int column;
+
+    Output(PrintWriter out, Pager pager) {
+      this.out = out;
+      this.pager = pager;
+    }
+
+    void append(CharSequence text) {
+      int length = text.length();
+      for (int start = 0; start < length; start += CHUNK_SIZE) {
+        int end = Math.min(length, start + CHUNK_SIZE);
+        if (maxChars > 0 && chars + (end - start) > maxChars) {
+          end = start + (int) (maxChars - chars);
+          write(text, start, end);
+          throw new Stop(true);
+        }
+        write(text, start, end);
+      }
+    }
+
+    private void write(CharSequence text, int start, int end) {
+      if (pager == null) {
+        out.append(text, start, end);
+      } else {
+        // Line breaks are tracked char by char, so the output can be paused at page boundary
+        for (int i = start; i < end; i++) {
+          char c = text.charAt(i);
+          out.append(c);
+          if (c == '\n' || ++column >= pager.width()) {
+            column = 0;
+            pager.lineCompleted();
+          }
+        }
+      }
+      chars += end - start;
+    }
+  }
+
+  /**
+   * Pauses the output every terminal page, like <code>more</code> does: space shows the next
+   * page, enter shows the next line and <code>q</code> stops the output.
+   */
+  private class Pager {
+
+    private final ConsoleReader reader;
+    private final Terminal terminal;
+    private int lines;
+
+    Pager(ConsoleReader reader) {
+      this.reader = reader;
+      this.terminal = reader.getTerminal();
+    }
+
+    int width() {
+      return Math.max(terminal.getWidth(), 1);
+    }
+
+    void lineCompleted() {
+      // Prompt of the shell occupies the last line
+      if (++lines < terminal.getHeight() - 1) {
+        return;
+      }
+      IO io = shell.getIo();
+      io.out.print("@|bold " + MORE_PROMPT + "|@");
+      io.out.flush();
+      int key;
+      try {
+        key = reader.readCharacter();
+      } catch (InterruptedIOException e) {
+        Thread.currentThread().interrupt();
+        throw new Stop(false);
+      } catch (IOException e) {
+        throw new Stop(false);
+      }
+      io.out.print("\r" + String.format("%" + MORE_PROMPT.length() + "s", "") + "\r");
+      if (key == 'q' || key == 'Q' || key < 0) {
+        throw new Stop(false);
+      }
+      lines = key == '\r' || key == '\n' ? lines - 1 : 0;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package me.bazhenov.groovysh;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs shell loops of client sessions.
+ *
+ * @see BoundedSessionExecutor
+ * @see GroovyShellService#setSessionExecutor(SessionExecutor)
+ */
+public interface SessionExecutor {
+
+  /**
+   * Schedules shell loop of a client session for execution.
+   *
+   * @param session shell loop
+   * @param name    name of the client session (used as a thread name)
+   * @return handle of the scheduled session
+   * @throws RejectedExecutionException if session can not be accepted
+   */
+  Handle execute(Runnable session, String name);
+
+  /**
+   * Stops accepting new sessions. Called when service is destroyed.
+   */
+  void shutdown();
+
+  interface Handle {
+
+    /**
+     * Interrupts the session if it is running or cancels it if it is still waiting for execution.
+     */
+    void interrupt();
+
+    /**
+     * @return true if session is waiting for a free slot
+     */
+    boolean isQueued();
+  }
+}
@@ -0,0 +1,196 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.session.Session;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Resource usage of a client session: CPU time and allocated bytes of the session thread, wall
+ * time, number of evaluated commands and evaluation latency.
+ * <p>
+ * Command counters are updated only by the session thread, so recording a command costs a couple
+ * of volatile writes (plus lock-free update of service-wide {@link ShellMetrics}). CPU time and
+ * allocated bytes are requested from {@link ThreadMXBean} when read.
+ */
+public class SessionStats {
+
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  private final Session session;
+  private final ShellMetrics metrics;
+  private final long startedAt = System.currentTimeMillis();
+  private volatile long threadId = -1;
+  private volatile long commands;
+  private volatile long totalEvalNanos;
+  private volatile long maxEvalNanos;
+  private volatile long lastEvalNanos;
+  private volatile long abortedCommands;
+  private volatile long outputBytes;
+  private volatile long truncatedCommands;
+  private volatile long outputBlockedNanos;
+  private volatile long outputThrottledNanos;
+
+  SessionStats(Session session, ShellMetrics metrics) {
+    this.session = session;
+    this.metrics = metrics;
+  }
+
+  void attachCurrentThread() {
+    threadId = Thread.currentThread().getId();
+  }
+
+  void commandEvaluated(long nanos, boolean aborted) {
+    commands++;
+    if (aborted) {
+      abortedCommands++;
+    }
+    totalEvalNanos += nanos;
+    lastEvalNanos = nanos;
+    if (nanos > maxEvalNanos) {
+      maxEvalNanos = nanos;
+    }
+    metrics.evalCompleted(nanos);
+  }
+
+  void outputWritten(long bytes, long blockedNanos) {
+    outputBytes += bytes;
+    outputBlockedNanos += blockedNanos;
+    metrics.bytesWritten(bytes, blockedNanos);
+  }
+
+  void outputTruncated() {
+    truncatedCommands++;
+    metrics.outputTruncated();
+  }
+
+  void outputThrottled(long nanos) {
+    outputThrottledNanos += nanos;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * @return id of the session (as used by {@link GroovyShellManagementMBean#killSession(long)})
+   */
+  public long getId() {
+    return session.getIoSession().getId();
+  }
+
+  public String getUsername() {
+    return session.getUsername();
+  }
+
+  public String getRemoteAddress() {
+    return String.valueOf(session.getIoSession().getRemoteAddress());
+  }
+
+  /**
+   * @return time the session was started at (in milliseconds since epoch)
+   */
+  public long getStartedAt() {
+    return startedAt;
+  }
+
+  public long getWallTimeMillis() {
+    return System.currentTimeMillis() - startedAt;
+  }
+
+  /**
+   * @return CPU time consumed by the session thread, or -1 if not available
+   */
+  public long getCpuTimeNanos() {
+    long threadId = this.threadId;
+    if (threadId < 0 || !threadMXBean.isThreadCpuTimeSupported()) {
+      return -1;
+    }
+    return threadMXBean.getThreadCpuTime(threadId);
+  }
+
+  /**
+   * @return number of bytes allocated by the session thread, or -1 if not available
+   */
+  public long getAllocatedBytes() {
+    long threadId = this.threadId;
+    if (threadId < 0 || !(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+    return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()
+        ? bean.getThreadAllocatedBytes(threadId)
+        : -1;
+  }
+
+  public long getCommandsEvaluated() {
+    return commands;
+  }
+
+  /**
+   * @return number of commands aborted for exceeding their time budgets
+   */
+  public long getAbortedCommands() {
+    return abortedCommands;
+  }
+
+  public long getOutputBytes() {
+    return outputBytes;
+  }
+
+  /**
+   * @return number of commands which output was truncated for exceeding per-command limit
+   */
+  public long getTruncatedCommands() {
+    return truncatedCommands;
+  }
+
+  /**
+   * @return time session thread spent blocked on channel writes
+   */
+  public long getOutputBlockedNanos() {
+    return outputBlockedNanos;
+  }
+
+  /**
+   * @return time session thread was put to sleep for exceeding output rate limit
+   */
+  public long getOutputThrottledNanos() {
+    return outputThrottledNanos;
+  }
+
+  public long getTotalEvalNanos() {
+    return totalEvalNanos;
+  }
+
+  public long getMaxEvalNanos() {
+    return maxEvalNanos;
+  }
+
+  public long getLastEvalNanos() {
+    return lastEvalNanos;
+  }
+
+  public long getMeanEvalNanos() {
+    long commands = this.commands;
+    return commands > 0 ? totalEvalNanos / commands : 0;
+  }
+
+  @Override
+  public String toString() {
+    long cpuTime = getCpuTimeNanos();
+    return getUsername() + "@" + getRemoteAddress()
+        + " [wall: " + getWallTimeMillis() + "ms"
+        + ", cpu: " + (cpuTime >= 0 ? NANOSECONDS.toMillis(cpuTime) + "ms" : "n/a")
+        + ", allocated: " + getAllocatedBytes() + "b"
+        + ", commands: " + commands
+        + ", aborted: " + abortedCommands
+        + ", output: " + outputBytes + "b"
+        + ", truncated: " + truncatedCommands
+        + ", blocked on output: " + NANOSECONDS.toMillis(outputBlockedNanos) + "ms"
+        + ", mean eval: " + NANOSECONDS.toMicros(getMeanEvalNanos()) + "us"
+        + ", max eval: " + NANOSECONDS.toMicros(maxEvalNanos) + "us]";
+  }
+}
@@ -0,0 +1,91 @@
+package me.bazhenov.groovysh;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Read-mostly variable scope shared by all client sessions.
+ * <p>
+ * By default scope is a copy-on-write map: readers never lock and always see a consistent snapshot,
+ * while updates (which are rare) copy the whole map. Once a map is given with
+ * {@link #replace(Map)}, scope becomes a live view of it: changes are written through to the given
+ * map, and changes made to the map directly are visible right away. Sessions never modify the
+ * scope.
+ */
+class SharedBindings extends AbstractMap<String, Object> {
+
+  private volatile Map<String, Object> variables = emptyMap();
+  private boolean external = false;
+
+  @Override
+  public Object get(Object key) {
+    return variables.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return variables.containsKey(key);
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return variables.entrySet();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return variables.keySet();
+  }
+
+  @Override
+  public int size() {
+    return variables.size();
+  }
+
+  @Override
+  public synchronized Object put(String name, Object value) {
+    if (external) {
+      return variables.put(name, value);
+    }
+    Map<String, Object> copy = new HashMap<>(variables);
+    Object previous = copy.put(name, value);
+    variables = unmodifiableMap(copy);
+    return previous;
+  }
+
+  @Override
+  public synchronized Object remove(Object name) {
+    if (external) {
+      return variables.remove(name);
+    }
+    if (!variables.containsKey(name)) {
+      return null;
+    }
+    Map<String, Object> copy = new HashMap<>(variables);
+    Object previous = copy.remove(name);
+    variables = unmodifiableMap(copy);
+    return previous;
+  }
+
+  @Override
+  public synchronized void clear() {
+    if (external) {
+      variables.clear();
+    } else {
+      variables = emptyMap();
+    }
+  }
+
+  /**
+   * Makes the scope a live view of a given map, or an empty copy-on-write map if map is null.
+   */
+  synchronized void replace(Map<String, Object> bindings) {
+    external = bindings != null;
+    variables = bindings != null ? bindings : emptyMap();
+  }
+}
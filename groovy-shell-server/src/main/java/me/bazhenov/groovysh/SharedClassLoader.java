@@ -0,0 +1,49 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.GroovyClassLoader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class loader of a session shared with the background jobs submitted from it. Classes of the
+ * session are released only when the session is over and all of its jobs are finished, so jobs
+ * outliving the session can still use them.
+ */
+final class SharedClassLoader {
+
+  private final GroovyClassLoader classLoader;
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  SharedClassLoader(GroovyClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
+  GroovyClassLoader get() {
+    return classLoader;
+  }
+
+  /**
+   * Adds a reference to the class loader, which should be released with {@link #release()}.
+   *
+   * @throws IllegalStateException if the class loader is released already
+   */
+  SharedClassLoader retain() {
+    int count;
+    do {
+      count = references.get();
+      if (count <= 0) {
+        throw new IllegalStateException("Class loader is released");
+      }
+    } while (!references.compareAndSet(count, count + 1));
+    return this;
+  }
+
+  /**
+   * Removes a reference to the class loader. Classes are released along with the last reference.
+   */
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      GroovyClassLoaders.release(classLoader);
+    }
+  }
+}
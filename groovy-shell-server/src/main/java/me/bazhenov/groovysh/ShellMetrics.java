@@ -0,0 +1,150 @@
+package me.bazhenov.groovysh;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Service-wide metrics of {@link GroovyShellService}.
+ * <p>
+ * Recording methods are lock-free, so they can be called from session threads without introducing
+ * contention.
+ */
+public class ShellMetrics {
+
+  /**
+   * Output rate is averaged over this number of last complete seconds
+   */
+  static final int OUTPUT_RATE_WINDOW_SECONDS = 10;
+  private static final long SECOND_NANOS = SECONDS.toNanos(1);
+
+  private final LongAdder totalConnections = new LongAdder();
+  private final LongAdder rejectedConnections = new LongAdder();
+  private final LongAdder evalCount = new LongAdder();
+  private final LongAdder outputBytes = new LongAdder();
+  private final LongAdder abortedCommands = new LongAdder();
+  private final LongAdder truncatedCommands = new LongAdder();
+  private final LongAdder outputBlockedNanos = new LongAdder();
+  private final LongAdder auditRecordsDropped = new LongAdder();
+  private final LatencyHistogram evalLatency = new LatencyHistogram();
+
+  // Per-second ring of output bytes, each slot is tagged with the second it is counting
+  private final AtomicLongArray outputBytesBySecond =
+      new AtomicLongArray(OUTPUT_RATE_WINDOW_SECONDS + 1);
+  private final AtomicLongArray outputSeconds = new AtomicLongArray(OUTPUT_RATE_WINDOW_SECONDS + 1);
+
+  void connectionOpened() {
+    totalConnections.increment();
+  }
+
+  void connectionRejected() {
+    rejectedConnections.increment();
+  }
+
+  void evalCompleted(long nanos) {
+    evalCount.increment();
+    evalLatency.record(nanos);
+  }
+
+  void commandAborted() {
+    abortedCommands.increment();
+  }
+
+  void bytesWritten(long bytes, long blockedNanos) {
+    outputBytes.add(bytes);
+    outputBlockedNanos.add(blockedNanos);
+    recordOutputRate(bytes, System.nanoTime());
+  }
+
+  void recordOutputRate(long bytes, long nanoTime) {
+    long second = Math.floorDiv(nanoTime, SECOND_NANOS);
+    int slot = (int) Math.floorMod(second, (long) outputSeconds.length());
+    long slotSecond = outputSeconds.get(slot);
+    if (slotSecond != second && outputSeconds.compareAndSet(slot, slotSecond, second)) {
+      // Bytes added by concurrent writers between these two lines are lost, which is negligible
+      outputBytesBySecond.set(slot, 0);
+    }
+    outputBytesBySecond.addAndGet(slot, bytes);
+  }
+
+  void outputTruncated() {
+    truncatedCommands.increment();
+  }
+
+  void auditRecordDropped() {
+    auditRecordsDropped.increment();
+  }
+
+  public long getTotalConnections() {
+    return totalConnections.sum();
+  }
+
+  public long getRejectedConnections() {
+    return rejectedConnections.sum();
+  }
+
+  public long getEvalCount() {
+    return evalCount.sum();
+  }
+
+  /**
+   * @return number of commands aborted for exceeding their time budgets
+   */
+  public long getAbortedCommands() {
+    return abortedCommands.sum();
+  }
+
+  public long getOutputBytes() {
+    return outputBytes.sum();
+  }
+
+  /**
+   * @return number of commands which output was truncated for exceeding per-command limit
+   */
+  public long getTruncatedCommands() {
+    return truncatedCommands.sum();
+  }
+
+  /**
+   * @return total time session threads spent blocked on channel writes
+   */
+  public long getOutputBlockedNanos() {
+    return outputBlockedNanos.sum();
+  }
+
+  /**
+   * @return number of audit log records dropped because audit log writer was falling behind
+   */
+  public long getAuditRecordsDropped() {
+    return auditRecordsDropped.sum();
+  }
+
+  /**
+   * @param percentile percentile in range [0, 100]
+   * @return evaluation latency (in nanoseconds) at a given percentile
+   */
+  public long getEvalLatencyNanos(double percentile) {
+    return evalLatency.getValueAtPercentile(percentile);
+  }
+
+  /**
+   * @return average output rate (in bytes per second) over last
+   * {@value #OUTPUT_RATE_WINDOW_SECONDS} complete seconds
+   */
+  public double getOutputBytesPerSecond() {
+    return getOutputBytesPerSecond(System.nanoTime());
+  }
+
+  double getOutputBytesPerSecond(long nanoTime) {
+    long current = Math.floorDiv(nanoTime, SECOND_NANOS);
+    long bytes = 0;
+    for (int slot = 0; slot < outputSeconds.length(); slot++) {
+      long second = outputSeconds.get(slot);
+      if (second < current && second >= current - OUTPUT_RATE_WINDOW_SECONDS) {
+        bytes += outputBytesBySecond.get(slot);
+      }
+    }
+    return (double) bytes / OUTPUT_RATE_WINDOW_SECONDS;
+  }
+}
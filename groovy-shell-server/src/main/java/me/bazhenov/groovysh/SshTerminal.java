@@ -62,4 +62,8 @@ public class SshTerminal extends UnixTerminal {
   static void registerEnvironment(Environment environment) {
     env.set(environment);
   }
+
+  static void unregisterEnvironment() {
+    env.remove();
+  }
 }
@@ -0,0 +1,269 @@
+package me.bazhenov.groovysh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Sampling profiler used by <code>:profile</code> command.
+ * <p>
+ * Stack traces of profiled threads are taken periodically and aggregated into collapsed stacks
+ * (<code>frame;frame;frame count</code>, root frame first), the format accepted by flame graph
+ * tools. All profiles are sampled by a single shared thread of the minimal priority, and stack
+ * traces of all the threads of a profile are taken with a single {@link ThreadMXBean} call.
+ * <p>
+ * Cost of a sample is bounded: at most {@value #MAX_THREADS} threads are sampled and at most
+ * {@value #MAX_STACK_DEPTH} top frames of each thread are taken (deeper stacks are rooted at
+ * {@value #TRUNCATED_FRAME} frame). Once CPU time of the sampler exceeds 1% of the profile
+ * duration, ticks are skipped until it is back within the budget.
+ */
+class StackSampler {
+
+  private static final Logger log = LoggerFactory.getLogger(StackSampler.class);
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+  private static final long THREADS_REFRESH_NANOS = SECONDS.toNanos(1);
+  static final int MAX_THREADS = 64;
+  static final int MAX_STACK_DEPTH = 128;
+  static final String TRUNCATED_FRAME = "[truncated]";
+  /**
+   * Share of the profile duration the sampler thread may spend on CPU
+   */
+  private static final int MAX_OVERHEAD_PERCENT = 1;
+
+  private final ScheduledExecutorService scheduler;
+
+  StackSampler() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "GroovySh Stack Sampler");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts sampling of a given threads.
+   *
+   * @param threads        supplier of ids of the profiled threads, called once a second, so
+   *                       threads started during profiling are picked up. Only first
+   *                       {@value #MAX_THREADS} threads are sampled
+   * @param intervalMillis sampling interval
+   * @param runnableOnly   true if only samples of the runnable threads should be recorded
+   * @param rootClass      if not null, frames up to the last frame of a given class (counting from
+   *                       the root) are dropped from samples
+   * @param threadFrames   true if thread name should be added to samples as a root frame
+   */
+  Profile start(Supplier<long[]> threads, long intervalMillis, boolean runnableOnly,
+      String rootClass, boolean threadFrames) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("Wrong sampling interval");
+    }
+    Profile profile = new Profile(threads, intervalMillis, runnableOnly, rootClass, threadFrames);
+    profile.future = scheduler.scheduleAtFixedRate(profile::sample, 0, intervalMillis,
+        MILLISECONDS);
+    return profile;
+  }
+
+  /**
+   * @return supplier of ids of the threads with names matching a given pattern
+   */
+  static Supplier<long[]> threadsMatching(Pattern pattern) {
+    return () -> {
+      ThreadInfo[] infos = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0);
+      long[] ids = new long[infos.length];
+      int count = 0;
+      for (ThreadInfo info : infos) {
+        if (info != null && pattern.matcher(info.getThreadName()).find()) {
+          ids[count++] = info.getThreadId();
+        }
+      }
+      return Arrays.copyOf(ids, count);
+    };
+  }
+
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  static class Profile {
+
+    private final Supplier<long[]> threads;
+    private final long intervalMillis;
+    private final boolean runnableOnly;
+    private final String rootClass;
+    private final boolean threadFrames;
+    private final long startedAt = System.nanoTime();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final StringBuilder stack = new StringBuilder();
+    private volatile ScheduledFuture<?> future;
+    private long[] threadIds;
+    private long threadsRefreshedAt;
+    private long samples;
+    private long skippedTicks;
+    private long samplerCpuNanos;
+    private long stoppedAt;
+
+    Profile(Supplier<long[]> threads, long intervalMillis, boolean runnableOnly,
+        String rootClass, boolean threadFrames) {
+      this.threads = threads;
+      this.intervalMillis = intervalMillis;
+      this.runnableOnly = runnableOnly;
+      this.rootClass = rootClass;
+      this.threadFrames = threadFrames;
+    }
+
+    private synchronized void sample() {
+      long now = System.nanoTime();
+      if (samplerCpuNanos * 100 > (now - startedAt) * MAX_OVERHEAD_PERCENT) {
+        skippedTicks++;
+        return;
+      }
+      long cpuTime = threadMXBean.getCurrentThreadCpuTime();
+      try {
+        if (threadIds == null || now - threadsRefreshedAt > THREADS_REFRESH_NANOS) {
+          long[] ids = threads.get();
+          threadIds = ids.length > MAX_THREADS ? Arrays.copyOf(ids, MAX_THREADS) : ids;
+          threadsRefreshedAt = now;
+        }
+        if (threadIds.length == 0) {
+          return;
+        }
+        for (ThreadInfo info : threadMXBean.getThreadInfo(threadIds, MAX_STACK_DEPTH)) {
+          if (info != null
+              && (!runnableOnly || info.getThreadState() == Thread.State.RUNNABLE)) {
+            record(info);
+          }
+        }
+      } catch (RuntimeException e) {
+        log.warn("Unable to sample threads", e);
+      } finally {
+        samplerCpuNanos += threadMXBean.getCurrentThreadCpuTime() - cpuTime;
+      }
+    }
+
+    private void record(ThreadInfo info) {
+      StackTraceElement[] frames = info.getStackTrace();
+      int root = frames.length - 1;
+      if (rootClass != null) {
+        for (int i = 0; i < frames.length; i++) {
+          if (rootClass.equals(frames[i].getClassName())) {
+            root = i - 1;
+            break;
+          }
+        }
+      }
+      if (root < 0) {
+        return;
+      }
+      stack.setLength(0);
+      if (threadFrames) {
+        // Frame separator and counter separator should not appear in frame names
+        stack.append(info.getThreadName().replace(';', '_').replace(' ', '_')).append(';');
+      }
+      if (frames.length == MAX_STACK_DEPTH && root == frames.length - 1) {
+        // Root frames of the deeper stacks are not known, so they are not mixed with real roots
+        stack.append(TRUNCATED_FRAME).append(';');
+      }
+      for (int i = root; i >= 0; i--) {
+        stack.append(frames[i].getClassName()).append('.').append(frames[i].getMethodName());
+        if (i > 0) {
+          stack.append(';');
+        }
+      }
+      stacks.merge(stack.toString(), 1L, Long::sum);
+      samples++;
+    }
+
+    /**
+     * Stops sampling. Results of the profile are available once it is stopped.
+     */
+    void stop() {
+      future.cancel(false);
+      synchronized (this) {
+        stoppedAt = System.nanoTime();
+      }
+    }
+
+    synchronized long getSamples() {
+      return samples;
+    }
+
+    /**
+     * @return number of ticks skipped as sampler exceeded its CPU budget
+     */
+    synchronized long getSkippedTicks() {
+      return skippedTicks;
+    }
+
+    synchronized long getDurationNanos() {
+      return (stoppedAt > 0 ? stoppedAt : System.nanoTime()) - startedAt;
+    }
+
+    /**
+     * @return CPU time spent by the sampler thread on this profile
+     */
+    synchronized long getSamplerCpuNanos() {
+      return samplerCpuNanos;
+    }
+
+    long getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    /**
+     * Writes samples in collapsed stack format, one stack per line.
+     */
+    synchronized void writeCollapsed(Writer writer) throws IOException {
+      for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+        writer.write(entry.getKey());
+        writer.write(' ');
+        writer.write(String.valueOf(entry.getValue()));
+        writer.write('\n');
+      }
+    }
+
+    /**
+     * @return frames ordered by the number of samples the frame is on top of the stack,
+     * each value is a pair of <code>{self samples, total samples}</code>
+     */
+    synchronized List<Map.Entry<String, long[]>> getTopFrames(int limit) {
+      Map<String, long[]> frames = new HashMap<>();
+      Set<String> seen = new HashSet<>();
+      for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+        String[] names = entry.getKey().split(";");
+        long count = entry.getValue();
+        seen.clear();
+        int first = threadFrames ? 1 : 0;
+        for (int i = first; i < names.length; i++) {
+          long[] counts = frames.computeIfAbsent(names[i], k -> new long[2]);
+          if (i == names.length - 1) {
+            counts[0] += count;
+          }
+          if (seen.add(names[i])) {
+            // Recursive frames are counted once per sample
+            counts[1] += count;
+          }
+        }
+      }
+      List<Map.Entry<String, long[]>> result = new ArrayList<>(frames.entrySet());
+      result.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+          ? Long.compare(b.getValue()[0], a.getValue()[0])
+          : Long.compare(b.getValue()[1], a.getValue()[1]));
+      return result.subList(0, Math.min(limit, result.size()));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package me.bazhenov.groovysh;
+
+import jline.console.history.FileHistory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shell history of a user backed by a {@link HistoryStore} instead of a local file.
+ * <p>
+ * Extends {@link FileHistory} as this is what groovysh expects, but the file is never read or
+ * written: lines are loaded from the store when the session starts and added to the store as they
+ * are typed.
+ */
+class StoredHistory extends FileHistory {
+
+  private final HistoryStore store;
+  private final String user;
+  private final boolean loaded;
+
+  StoredHistory(HistoryStore store, String user) throws IOException {
+    super(new File("groovysh-" + user + ".history"), false);
+    this.store = store;
+    this.user = user;
+    for (String line : store.load(user)) {
+      internalAdd(line);
+    }
+    loaded = true;
+  }
+
+  HistoryStore getStore() {
+    return store;
+  }
+
+  String getUser() {
+    return user;
+  }
+
+  @Override
+  protected void internalAdd(CharSequence item) {
+    super.internalAdd(item);
+    if (loaded) {
+      store.add(user, item.toString());
+    }
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    if (loaded) {
+      store.clear(user);
+    }
+  }
+
+  /**
+   * Lines are persisted by the store, nothing to flush.
+   */
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void purge() {
+    clear();
+  }
+}
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
 class TtyFilterOutputStream extends FilterOutputStream {
 
   /**
@@ -20,20 +22,36 @@ class TtyFilterOutputStream extends FilterOutputStream {
    */
   private final AtomicBoolean isServiceAlive, isChannelAlive = new AtomicBoolean(true);
 
-  TtyFilterOutputStream(OutputStream out, AtomicBoolean isServiceAlive) {
+  /**
+   * Translation buffer reused across writes. Sized so that typical console lines are forwarded to
+   * the channel in a single write.
+   */
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputLimiter limiter;
+
+  TtyFilterOutputStream(OutputStream out, AtomicBoolean isServiceAlive, OutputLimiter limiter) {
     super(out);
     this.isServiceAlive = isServiceAlive;
+    this.limiter = limiter;
   }
 
   @Override
-  public void write(int c) throws IOException {
+  public synchronized void write(int c) throws IOException {
     if (isAlive()) {
       try {
-        if (c == '\n') {
-          super.write(c);
-          c = '\r';
+        if (limiter.acquire(1) == 0) {
+          writeTruncationMarker();
+        } else if (c == '\n') {
+          buffer[0] = '\r';
+          buffer[1] = '\n';
+          writeBuffer(2);
+        } else {
+          buffer[0] = (byte) c;
+          writeBuffer(1);
         }
-        super.write(c);
       } catch (SshChannelException e) {
         isChannelAlive.set(false);
         throw e;
@@ -54,12 +72,82 @@ class TtyFilterOutputStream extends FilterOutputStream {
   }
 
   @Override
-  public void write(byte[] b, int off, int len) throws IOException {
-    if (isAlive()) {
-      for (int i = off; i < len; i++) {
-        write(b[i]);
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (!isAlive()) {
+      return;
+    }
+    try {
+      int allowed = limiter.acquire(len);
+      translate(b, off, allowed);
+      if (allowed < len) {
+        writeTruncationMarker();
+      }
+    } catch (SshChannelException e) {
+      isChannelAlive.set(false);
+      throw e;
+    }
+  }
+
+  private void writeTruncationMarker() throws IOException {
+    if (limiter.truncate()) {
+      byte[] marker = ("\n... output truncated, command exceeded "
+          + limiter.getBytesPerCommand() + " bytes\n").getBytes(US_ASCII);
+      translate(marker, 0, marker.length);
+    }
+  }
+
+  /**
+   * Translates <code>\n</code> to <code>\r\n</code> block-wise. Runs between line feeds are copied
+   * into the translation buffer and forwarded downstream once the buffer is full or the input is
+   * exhausted.
+   */
+  private void translate(byte[] b, int off, int len) throws IOException {
+    int end = off + len;
+    int pos = 0;
+    int i = off;
+    while (i < end) {
+      int lf = indexOfLineFeed(b, i, end);
+      while (i < lf) {
+        int n = Math.min(lf - i, buffer.length - pos);
+        System.arraycopy(b, i, buffer, pos, n);
+        pos += n;
+        i += n;
+        if (pos == buffer.length) {
+          writeBuffer(pos);
+          pos = 0;
+        }
+      }
+      if (lf < end) {
+        if (pos + 2 > buffer.length) {
+          writeBuffer(pos);
+          pos = 0;
+        }
+        buffer[pos++] = '\r';
+        buffer[pos++] = '\n';
+        i = lf + 1;
+      }
+    }
+    if (pos > 0) {
+      writeBuffer(pos);
+    }
+  }
+
+  private void writeBuffer(int len) throws IOException {
+    long startedAt = System.nanoTime();
+    out.write(buffer, 0, len);
+    limiter.written(len, System.nanoTime() - startedAt);
+  }
+
+  private static int indexOfLineFeed(byte[] b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (b[i] == '\n') {
+        return i;
       }
     }
+    return to;
   }
 
   private boolean isAlive() {
@@ -0,0 +1,123 @@
+package me.bazhenov.groovysh;
+
+import jline.internal.NonBlockingInputStream;
+import org.apache.groovy.groovysh.Groovysh;
+import org.apache.groovy.groovysh.InteractiveShellRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * <code>:wait</code> command attaching to the output of a background job.
+ */
+class WaitCommand extends JobCommand {
+
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  WaitCommand(Groovysh shell) {
+    super(shell, ":wait", ":w");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Follow the output of a background job";
+  }
+
+  @Override
+  public String getUsage() {
+    return "[job id]";
+  }
+
+  @Override
+  public String getHelp() {
+    return "Prints the output of a background job (the most recent one, if id is omitted) and "
+        + "waits for the job to complete. Start typing to detach, the job keeps running";
+  }
+
+  @Override
+  public Object execute(List<String> args) {
+    Job job = findJob(args);
+    try {
+      if (!follow(job)) {
+        io.out.println("Detached from job " + job.getId());
+        return null;
+      }
+    } catch (IOException e) {
+      fail("Unable to follow job output: " + e.getMessage());
+    }
+    io.out.println("Job " + job.getId() + " is " + job.getState() + " in "
+        + job.getRunningTimeMillis() + "ms");
+    String result = job.getResult();
+    if (result != null) {
+      if (job.getState() == Job.State.COMPLETED) {
+        io.out.println("@|bold ===>|@ " + result);
+      } else {
+        io.err.print(result);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Copies job output to the session until the job is finished or the user presses a key.
+   *
+   * @return true if the job is finished
+   */
+  private boolean follow(Job job) throws IOException {
+    JobOutput output = job.getOutput();
+    ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    InputStream input = input();
+    long position = 0;
+    long discarded = 0;
+    io.out.flush();
+    while (true) {
+      // Job output is complete once the job is finished, so it is checked before copying
+      boolean finished = job.isFinished();
+      chunk.reset();
+      long end = output.copyTo(position, chunk);
+      discarded += end - position - chunk.size();
+      position = end;
+      chunk.writeTo(io.outputStream);
+      io.outputStream.flush();
+      if (finished) {
+        break;
+      }
+      if (keyPressed(input, output, position)) {
+        return false;
+      }
+    }
+    if (discarded > 0) {
+      io.out.println("(" + discarded + " bytes of output are discarded)");
+    }
+    return true;
+  }
+
+  private InputStream input() {
+    InteractiveShellRunner runner = shell.getRunner();
+    return runner != null && runner.getReader() != null ? runner.getReader().getInput() : null;
+  }
+
+  /**
+   * Waits for a key press or the next portion of the job output, whichever comes first. Pressed
+   * key is left in the input, so it goes to the next command.
+   */
+  private static boolean keyPressed(InputStream input, JobOutput output, long position)
+      throws IOException {
+    if (input instanceof NonBlockingInputStream
+        && ((NonBlockingInputStream) input).isNonBlockingEnabled()) {
+      int key = ((NonBlockingInputStream) input).peek(POLL_INTERVAL_MILLIS);
+      // -2 means no key is pressed before the timeout
+      return key != -2;
+    }
+    try {
+      output.await(position, POLL_INTERVAL_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    return false;
+  }
+}
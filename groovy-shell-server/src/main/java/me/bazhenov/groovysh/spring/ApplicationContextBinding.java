@@ -0,0 +1,57 @@
+package me.bazhenov.groovysh.spring;
+
+import groovy.lang.MissingPropertyException;
+import me.bazhenov.groovysh.LayeredBinding;
+import org.springframework.beans.factory.BeanIsAbstractException;
+import org.springframework.context.ApplicationContext;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binding which resolves Spring beans lazily.
+ * <p>
+ * Bean is requested from the {@link ApplicationContext} only when script references corresponding
+ * variable for the first time. Session and shared variables take priority over beans with the same
+ * name. Bean names are completed by groovysh without instantiating beans.
+ */
+public class ApplicationContextBinding extends LayeredBinding {
+
+  private final ApplicationContext ctx;
+  private final Set<String> beanNames;
+  private final Set<String> unavailable = new HashSet<>();
+
+  /**
+   * @param shared    variables shared by all the sessions
+   * @param ctx       application context beans are resolved from
+   * @param beanNames names of the beans to be published
+   */
+  public ApplicationContextBinding(Map<String, Object> shared, ApplicationContext ctx,
+      Set<String> beanNames) {
+    super(shared);
+    this.ctx = ctx;
+    this.beanNames = beanNames;
+  }
+
+  @Override
+  protected boolean isLazyVariable(String name) {
+    return beanNames.contains(name) && !unavailable.contains(name);
+  }
+
+  @Override
+  protected Collection<String> getLazyVariableNames() {
+    return beanNames;
+  }
+
+  @Override
+  protected Object resolveLazyVariable(String name) {
+    try {
+      return ctx.getBean(name);
+    } catch (BeanIsAbstractException e) {
+      unavailable.add(name);
+      throw new MissingPropertyException(name, getClass());
+    }
+  }
+}
@@ -1,17 +1,25 @@
 package me.bazhenov.groovysh.spring;
 
+import me.bazhenov.groovysh.AuditOverflowPolicy;
+import me.bazhenov.groovysh.CompileMode;
+import me.bazhenov.groovysh.FanOutClient;
 import me.bazhenov.groovysh.GroovyShellService;
+import me.bazhenov.groovysh.HistoryStore;
 import org.apache.sshd.server.auth.password.PasswordAuthenticator;
 import org.springframework.beans.BeansException;
-import org.springframework.beans.factory.BeanIsAbstractException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import java.io.File;
 import java.util.*;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableSet;
 
 @SuppressWarnings("UnusedDeclaration")
 public class GroovyShellServiceBean implements InitializingBean, DisposableBean,
@@ -45,12 +53,205 @@ public class GroovyShellServiceBean implements InitializingBean, DisposableBean,
     service.setDisableImportCompletions(disableImportCompletions);
   }
 
+  /**
+   * @see GroovyShellService#setShellPoolSize(int)
+   */
+  public void setShellPoolSize(int shellPoolSize) {
+    service.setShellPoolSize(shellPoolSize);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxSessions(int)
+   */
+  public void setMaxSessions(int maxSessions) {
+    service.setMaxSessions(maxSessions);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxQueuedSessions(int)
+   */
+  public void setMaxQueuedSessions(int maxQueuedSessions) {
+    service.setMaxQueuedSessions(maxQueuedSessions);
+  }
+
+  /**
+   * @see GroovyShellService#setUseVirtualThreads(boolean)
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    service.setUseVirtualThreads(useVirtualThreads);
+  }
+
+  /**
+   * @see GroovyShellService#setCommandWallTimeout(long)
+   */
+  public void setCommandWallTimeout(long commandWallTimeout) {
+    service.setCommandWallTimeout(commandWallTimeout);
+  }
+
+  /**
+   * @see GroovyShellService#setCommandCpuTimeout(long)
+   */
+  public void setCommandCpuTimeout(long commandCpuTimeout) {
+    service.setCommandCpuTimeout(commandCpuTimeout);
+  }
+
+  /**
+   * @see GroovyShellService#setCommandAbortGracePeriod(long)
+   */
+  public void setCommandAbortGracePeriod(long commandAbortGracePeriod) {
+    service.setCommandAbortGracePeriod(commandAbortGracePeriod);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxOutputBytesPerSecond(long)
+   */
+  public void setMaxOutputBytesPerSecond(long maxOutputBytesPerSecond) {
+    service.setMaxOutputBytesPerSecond(maxOutputBytesPerSecond);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxOutputBytesPerCommand(long)
+   */
+  public void setMaxOutputBytesPerCommand(long maxOutputBytesPerCommand) {
+    service.setMaxOutputBytesPerCommand(maxOutputBytesPerCommand);
+  }
+
+  /**
+   * @see GroovyShellService#setImportCompletionIndex(File)
+   */
+  public void setImportCompletionIndex(File importCompletionIndex) {
+    service.setImportCompletionIndex(importCompletionIndex);
+  }
+
+  /**
+   * @see GroovyShellService#setDeferredInitialization(boolean)
+   */
+  public void setDeferredInitialization(boolean deferredInitialization) {
+    service.setDeferredInitialization(deferredInitialization);
+  }
+
+  /**
+   * @see GroovyShellService#setAuditLog(File)
+   */
+  public void setAuditLog(File auditLog) {
+    service.setAuditLog(auditLog);
+  }
+
+  /**
+   * @see GroovyShellService#setAuditLogMaxFileSize(long)
+   */
+  public void setAuditLogMaxFileSize(long auditLogMaxFileSize) {
+    service.setAuditLogMaxFileSize(auditLogMaxFileSize);
+  }
+
+  /**
+   * @see GroovyShellService#setAuditLogFlushInterval(long)
+   */
+  public void setAuditLogFlushInterval(long auditLogFlushInterval) {
+    service.setAuditLogFlushInterval(auditLogFlushInterval);
+  }
+
+  /**
+   * @see GroovyShellService#setAuditLogQueueCapacity(int)
+   */
+  public void setAuditLogQueueCapacity(int auditLogQueueCapacity) {
+    service.setAuditLogQueueCapacity(auditLogQueueCapacity);
+  }
+
+  /**
+   * @see GroovyShellService#setAuditLogOverflowPolicy(AuditOverflowPolicy)
+   */
+  public void setAuditLogOverflowPolicy(AuditOverflowPolicy auditLogOverflowPolicy) {
+    service.setAuditLogOverflowPolicy(auditLogOverflowPolicy);
+  }
+
+  /**
+   * @see GroovyShellService#setHistoryFile(File)
+   */
+  public void setHistoryFile(File historyFile) {
+    service.setHistoryFile(historyFile);
+  }
+
+  /**
+   * @see GroovyShellService#setHistoryStore(HistoryStore)
+   */
+  public void setHistoryStore(HistoryStore historyStore) {
+    service.setHistoryStore(historyStore);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxResultElements(int)
+   */
+  public void setMaxResultElements(int maxResultElements) {
+    service.setMaxResultElements(maxResultElements);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxResultChars(long)
+   */
+  public void setMaxResultChars(long maxResultChars) {
+    service.setMaxResultChars(maxResultChars);
+  }
+
+  /**
+   * @see GroovyShellService#setResultPaging(boolean)
+   */
+  public void setResultPaging(boolean resultPaging) {
+    service.setResultPaging(resultPaging);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxJobs(int)
+   */
+  public void setMaxJobs(int maxJobs) {
+    service.setMaxJobs(maxJobs);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxQueuedJobs(int)
+   */
+  public void setMaxQueuedJobs(int maxQueuedJobs) {
+    service.setMaxQueuedJobs(maxQueuedJobs);
+  }
+
+  /**
+   * @see GroovyShellService#setJobOutputBufferSize(int)
+   */
+  public void setJobOutputBufferSize(int jobOutputBufferSize) {
+    service.setJobOutputBufferSize(jobOutputBufferSize);
+  }
+
+  /**
+   * @see GroovyShellService#setFanOutClient(FanOutClient)
+   */
+  public void setFanOutClient(FanOutClient fanOutClient) {
+    service.setFanOutClient(fanOutClient);
+  }
+
+  /**
+   * @see GroovyShellService#setMaxBenchmarkTime(long)
+   */
+  public void setMaxBenchmarkTime(long maxBenchmarkTime) {
+    service.setMaxBenchmarkTime(maxBenchmarkTime);
+  }
+
+  /**
+   * @see GroovyShellService#setCompileMode(CompileMode)
+   */
+  public void setCompileMode(CompileMode compileMode) {
+    service.setCompileMode(compileMode);
+  }
+
   public void setLaunchAtStart(boolean launchAtStart) {
     this.launchAtStart = launchAtStart;
   }
 
   /**
+   * Beans are published lazily: bean is requested from the context only when it is referenced in
+   * the shell for the first time.
+   *
    * @param publishContextBeans should spring beans be published in groovysh context
+   * @see ApplicationContextBinding
    */
   public void setPublishContextBeans(boolean publishContextBeans) {
     this.publishContextBeans = publishContextBeans;
@@ -60,8 +261,17 @@ public class GroovyShellServiceBean implements InitializingBean, DisposableBean,
     return launchAtStart;
   }
 
+  /**
+   * Adds variables shared by all client sessions. Unlike
+   * {@link GroovyShellService#setBindings(Map)}, entries are copied, as maps built by Spring are
+   * not thread safe.
+   *
+   * @param bindings shared variables
+   */
   public void setBindings(Map<String, Object> bindings) {
-    service.setBindings(bindings);
+    for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+      service.addBinding(binding.getKey(), binding.getValue());
+    }
   }
 
   protected GroovyShellService getService() {
@@ -72,6 +282,20 @@ public class GroovyShellServiceBean implements InitializingBean, DisposableBean,
     service.setPasswordAuthenticator(passwordAuthenticator);
   }
 
+  /**
+   * @see GroovyShellService#setPasswordCacheTtl(long)
+   */
+  public void setPasswordCacheTtl(long passwordCacheTtl) {
+    service.setPasswordCacheTtl(passwordCacheTtl);
+  }
+
+  /**
+   * @see GroovyShellService#setAuthorizedKeysFile(File)
+   */
+  public void setAuthorizedKeysFile(File authorizedKeysFile) {
+    service.setAuthorizedKeysFile(authorizedKeysFile);
+  }
+
   /**
    * Set the comma delimited list of default scripts
    *
@@ -97,30 +321,39 @@ public class GroovyShellServiceBean implements InitializingBean, DisposableBean,
   public void afterPropertiesSet() throws Exception {
     if (launchAtStart) {
       if (applicationContext != null) {
-        Map<String, Object> bindings = new HashMap<>();
         if (publishContextBeans) {
-          publishContextBeans(bindings, applicationContext);
+          publishContextBeans(applicationContext);
         }
-        bindings.put("ctx", applicationContext);
-        if (service.getBindings() != null) {
-          bindings.putAll(service.getBindings());
+        // Shared scope is kept as is, so it stays safe for concurrent reads by the sessions
+        if (!service.getBindings().containsKey("ctx")) {
+          service.addBinding("ctx", applicationContext);
         }
-        service.setBindings(bindings);
       }
       service.start();
     }
   }
 
-  private static void publishContextBeans(Map<String, Object> bindings, ApplicationContext ctx) {
+  private void publishContextBeans(ApplicationContext ctx) {
+    Set<String> beanNames = new HashSet<>();
     for (String name : getContextBeans(ctx)) {
-      if (!name.contains("#")) { // skip beans without explicit id given
-        try {
-          bindings.put(name, ctx.getBean(name));
-        } catch (BeanIsAbstractException exc) {
-          // Skip abstract beans
-        }
+      if (!name.contains("#") && !isAbstract(ctx, name)) { // skip beans without explicit id given
+        beanNames.add(name);
+      }
+    }
+    Set<String> names = unmodifiableSet(beanNames);
+    service.setBindingFactory(shared -> new ApplicationContextBinding(shared, ctx, names));
+  }
+
+  private static boolean isAbstract(ApplicationContext ctx, String name) {
+    AutowireCapableBeanFactory factory = ctx.getAutowireCapableBeanFactory();
+    if (factory instanceof ConfigurableListableBeanFactory) {
+      try {
+        return ((ConfigurableListableBeanFactory) factory).getBeanDefinition(name).isAbstract();
+      } catch (NoSuchBeanDefinitionException e) {
+        return false;
       }
     }
+    return false;
   }
 
   private static String[] getContextBeans(ApplicationContext ctx) {
@@ -0,0 +1,108 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.io.IoSession;
+import org.apache.sshd.common.session.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AuditLogTest {
+
+  private final ShellMetrics metrics = new ShellMetrics();
+  private final SessionStats session = new SessionStats(session(), metrics);
+  private File directory;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("audit").toFile();
+    file = new File(directory, "audit.log");
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void writesRecords() throws IOException {
+    AuditLog auditLog = newAuditLog(0);
+    auditLog.commandEvaluated(session, "println \"hi\"", 1000, 3, false);
+    auditLog.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+    assertEquals(1, lines.size());
+    assertTrue(lines.get(0), lines.get(0).contains("\"command\":\"println \\\"hi\\\"\""));
+    assertTrue(lines.get(0), lines.get(0).contains("\"user\":\"operator\""));
+    assertEquals(0, metrics.getAuditRecordsDropped());
+  }
+
+  @Test
+  public void countsRecordsDroppedAfterWriteFailure() throws IOException {
+    // Each record is rotated to a new file, which can't be created once directory is removed
+    AuditLog auditLog = newAuditLog(1);
+    auditLog.commandEvaluated(session, "1", 1000, 0, false);
+    awaitFile();
+    file.delete();
+    directory.delete();
+
+    auditLog.commandEvaluated(session, "2", 1000, 0, false);
+    auditLog.commandEvaluated(session, "3", 1000, 0, false);
+    auditLog.close();
+
+    assertEquals(2, metrics.getAuditRecordsDropped());
+  }
+
+  private AuditLog newAuditLog(long maxFileSize) throws IOException {
+    return new AuditLog(file, maxFileSize, 1, 100, AuditOverflowPolicy.DROP, metrics);
+  }
+
+  private void awaitFile() {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+  }
+
+  private static Session session() {
+    IoSession ioSession = (IoSession) Proxy.newProxyInstance(AuditLogTest.class.getClassLoader(),
+        new Class<?>[]{IoSession.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getId":
+              return 1L;
+            case "getRemoteAddress":
+              return new InetSocketAddress("127.0.0.1", 2222);
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    return (Session) Proxy.newProxyInstance(AuditLogTest.class.getClassLoader(),
+        new Class<?>[]{Session.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getUsername":
+              return "operator";
+            case "getIoSession":
+              return ioSession;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
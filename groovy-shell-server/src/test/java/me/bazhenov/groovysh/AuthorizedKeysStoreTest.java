@@ -0,0 +1,62 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthorizedKeysStoreTest {
+
+  private File file;
+  private PublicKey key;
+  private PublicKey restrictedKey;
+
+  @Before
+  public void setUp() throws IOException, GeneralSecurityException {
+    file = File.createTempFile("authorized_keys", "");
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    key = generator.generateKeyPair().getPublic();
+    restrictedKey = generator.generateKeyPair().getPublic();
+    String keys = entry(key) + "\n" + "from=\"10.0.0.1\",no-pty " + entry(restrictedKey) + "\n";
+    Files.write(file.toPath(), keys.getBytes(UTF_8));
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void keysWithOptionsAreSkipped() throws IOException {
+    try (AuthorizedKeysStore store = new AuthorizedKeysStore(file)) {
+      assertTrue(store.authenticate("operator", key, null));
+      assertFalse(store.authenticate("operator", restrictedKey, null));
+    }
+  }
+
+  @Test
+  public void removedFileRevokesKeys() throws IOException {
+    try (AuthorizedKeysStore store = new AuthorizedKeysStore(file)) {
+      assertTrue(file.delete());
+      store.reloadIfModified();
+
+      assertFalse(store.authenticate("operator", key, null));
+    }
+  }
+
+  private static String entry(PublicKey key) throws IOException {
+    return PublicKeyEntry.appendPublicKeyEntry(new StringBuilder(), key).toString();
+  }
+}
@@ -0,0 +1,39 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BindingVariablesCustomizerTest {
+
+  private final Binding binding = new Binding();
+
+  @Test
+  public void readsVariableOfCurrentType() {
+    binding.setVariable("name", "value");
+
+    assertEquals(5, evaluate("name.length()"));
+  }
+
+  @Test
+  public void readsVariableReassignedWithAnotherType() {
+    binding.setVariable("x", 1);
+
+    assertEquals("abc", evaluate("x = 'abc'; x"));
+    assertEquals(3, evaluate("x.length()"));
+  }
+
+  @Test
+  public void typesNewVariableWithAssignedValue() {
+    assertEquals(2, evaluate("list = [1, 2]; list.size()"));
+  }
+
+  private Object evaluate(String script) {
+    CompilerConfiguration configuration = new CompilerConfiguration();
+    CompileMode.STATIC.configure(configuration, new CompilerConfiguration(), binding);
+    return new GroovyShell(binding, configuration).evaluate(script);
+  }
+}
@@ -0,0 +1,62 @@
+package me.bazhenov.groovysh;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class BoundedSessionExecutorTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final BoundedSessionExecutor executor = new BoundedSessionExecutor(1, 1, true);
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    executor.shutdown();
+  }
+
+  @Test
+  public void queuesSessionsOverLimit() throws InterruptedException {
+    CountDownLatch queuedStarted = new CountDownLatch(1);
+    SessionExecutor.Handle running = executor.execute(this::await, "running");
+    SessionExecutor.Handle queued = executor.execute(queuedStarted::countDown, "queued");
+
+    assertFalse(running.isQueued());
+    assertTrue(queued.isQueued());
+    assertFalse(queuedStarted.await(100, MILLISECONDS));
+
+    release.countDown();
+    assertTrue(queuedStarted.await(5, SECONDS));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void rejectsSessionsOverQueueSize() {
+    executor.execute(this::await, "running");
+    executor.execute(this::await, "queued");
+    executor.execute(this::await, "rejected");
+  }
+
+  @Test
+  public void cancelsQueuedSession() throws InterruptedException {
+    CountDownLatch queuedStarted = new CountDownLatch(1);
+    executor.execute(this::await, "running");
+    executor.execute(queuedStarted::countDown, "queued").interrupt();
+
+    release.countDown();
+    assertFalse(queuedStarted.await(500, MILLISECONDS));
+  }
+
+  private void await() {
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.GroovyShell;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class CompiledScriptCacheTest {
+
+  private File script;
+  private final CompiledScriptCache cache =
+      new CompiledScriptCache(getClass().getClassLoader(), new CompilerConfiguration());
+
+  @Before
+  public void setUp() throws IOException {
+    script = File.createTempFile("default", ".groovy");
+    Files.write(script.toPath(), asList(
+        "import java.util.concurrent.TimeUnit",
+        "import java.util.concurrent.atomic.*",
+        "import static java.lang.Math.max",
+        "import java.util.Map.Entry as Pair",
+        "greeting = 'hi'",
+        "def twice(x) { x * 2 }",
+        "class Greeter { String greet() { 'hello' } }"), UTF_8);
+  }
+
+  @After
+  public void tearDown() {
+    cache.close();
+    script.delete();
+  }
+
+  @Test
+  public void runsScriptAgainstBinding() throws IOException {
+    Binding binding = new Binding();
+    cache.run(script.getPath(), binding);
+
+    assertEquals("hi", binding.getVariable("greeting"));
+  }
+
+  @Test
+  public void exportsDeclaredMethods() throws IOException {
+    Binding binding = new Binding();
+    cache.run(script.getPath(), binding);
+
+    assertEquals(42, ((Closure<?>) binding.getVariable("twice")).call(21));
+    assertFalse(binding.hasVariable("run"));
+    assertFalse(binding.hasVariable("main"));
+  }
+
+  @Test
+  public void returnsImports() throws IOException {
+    List<String> imports = cache.run(script.getPath(), new Binding());
+
+    assertEquals(asList("java.util.concurrent.TimeUnit", "java.util.Map.Entry as Pair",
+        "java.util.concurrent.atomic.*", "static java.lang.Math.max"), imports);
+  }
+
+  @Test
+  public void compilesScriptOnce() throws IOException {
+    Binding first = new Binding();
+    Binding second = new Binding();
+    cache.run(script.getPath(), first);
+    cache.run(script.getPath(), second);
+
+    assertSame(((Closure<?>) first.getVariable("twice")).getOwner().getClass(),
+        ((Closure<?>) second.getVariable("twice")).getOwner().getClass());
+  }
+
+  @Test
+  public void declaredClassesAreVisibleToSessions() throws IOException {
+    Binding binding = new Binding();
+    cache.run(script.getPath(), binding);
+
+    GroovyShell session = new GroovyShell(cache.getClassLoader(), binding);
+    assertEquals("hello", session.evaluate("new Greeter().greet()"));
+  }
+}
@@ -0,0 +1,87 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+
+public class FanOutClientTest {
+
+  private static final int NODES = 3;
+  private static final String PASSWORD = "secret";
+
+  private final List<GroovyShellService> services = new ArrayList<>();
+  private final List<String> targets = new ArrayList<>();
+  private final AtomicInteger passwordChecks = new AtomicInteger();
+  private final FanOutClient client = new FanOutClient();
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < NODES; i++) {
+      int port = freePort();
+      GroovyShellService service = new GroovyShellService(port);
+      service.setDisableImportCompletions(true);
+      service.setBindings(singletonMap("node", (Object) ("node" + i)));
+      service.setPasswordAuthenticator((username, password, session) -> {
+        passwordChecks.incrementAndGet();
+        return PASSWORD.equals(password);
+      });
+      service.start();
+      services.add(service);
+      targets.add("127.0.0.1:" + port);
+    }
+    client.setTargets(targets);
+    client.setPassword(PASSWORD);
+    client.setTimeout(30_000);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    for (GroovyShellService service : services) {
+      service.destroy();
+    }
+  }
+
+  @Test
+  public void runsScriptOnAllTargets() throws InterruptedException {
+    client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+    Map<String, String> output = new ConcurrentHashMap<>();
+
+    List<FanOutResult> results = client.run("println node", output::put);
+
+    for (int i = 0; i < NODES; i++) {
+      assertEquals(results.get(i).toString(), FanOutResult.Status.OK,
+          results.get(i).getStatus());
+      assertEquals("node" + i, output.get(targets.get(i)));
+    }
+  }
+
+  @Test
+  public void passwordIsNotSentToUnknownHosts() throws InterruptedException {
+    List<FanOutResult> results = client.run("println node", (target, line) -> {
+    });
+
+    for (FanOutResult result : results) {
+      assertEquals(result.toString(), FanOutResult.Status.ERROR, result.getStatus());
+    }
+    assertEquals(0, passwordChecks.get());
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package me.bazhenov.groovysh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.Preferences;
+import java.util.prefs.PreferencesFactory;
+
+/**
+ * Preferences kept in memory of the test JVM (see surefire configuration). Groovysh and the
+ * service store their settings in user preferences, so tests don't change preferences of the user
+ * running them.
+ */
+public class InMemoryPreferencesFactory implements PreferencesFactory {
+
+  private final Preferences userRoot = new InMemoryPreferences(null, "");
+  private final Preferences systemRoot = new InMemoryPreferences(null, "");
+
+  @Override
+  public Preferences userRoot() {
+    return userRoot;
+  }
+
+  @Override
+  public Preferences systemRoot() {
+    return systemRoot;
+  }
+
+  private static class InMemoryPreferences extends AbstractPreferences {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    InMemoryPreferences(AbstractPreferences parent, String name) {
+      super(parent, name);
+    }
+
+    @Override
+    protected void putSpi(String key, String value) {
+      values.put(key, value);
+    }
+
+    @Override
+    protected String getSpi(String key) {
+      return values.get(key);
+    }
+
+    @Override
+    protected void removeSpi(String key) {
+      values.remove(key);
+    }
+
+    @Override
+    protected void removeNodeSpi() {
+    }
+
+    @Override
+    protected String[] keysSpi() {
+      return values.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected String[] childrenNamesSpi() {
+      // Children are cached by AbstractPreferences, there are no other children
+      return new String[0];
+    }
+
+    @Override
+    protected AbstractPreferences childSpi(String name) {
+      return new InMemoryPreferences(this, name);
+    }
+
+    @Override
+    protected void syncSpi() {
+    }
+
+    @Override
+    protected void flushSpi() {
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.session.ClientSession;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load test opening a number of concurrent SSH sessions to a local {@link GroovyShellService} and
+ * evaluating a mix of scripts in each of them.
+ * <p>
+ * Reports percentiles of time-to-prompt (from connection to the first prompt), eval round trip
+ * (from sending a command to the next prompt) and per-command output throughput, as well as peak
+ * thread count and heap usage of the JVM. Runs on localhost only, so it doesn't require network.
+ * <p>
+ * Load can be changed with <code>loadTest.sessions</code> and <code>loadTest.commands</code>
+ * system properties.
+ */
+public class SessionLoadTest {
+
+  private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001b\\[[0-9;]*[a-zA-Z]");
+  private static final Pattern PROMPT = Pattern.compile("groovy:\\d{3}> ");
+  private static final long TIMEOUT_SECONDS = 120;
+  private static final List<String> SCRIPTS = asList(
+      "1 + 1",
+      "(1..1000).sum()",
+      "(1..200).each { println 'x' * 80 }");
+
+  private final int sessions = Integer.getInteger("loadTest.sessions", 20);
+  private final int commands = Integer.getInteger("loadTest.commands", 20);
+  private int port;
+
+  private final LatencyHistogram timeToPrompt = new LatencyHistogram();
+  private final LatencyHistogram roundTrip = new LatencyHistogram();
+  private final LatencyHistogram throughput = new LatencyHistogram();
+  private final AtomicLong outputBytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private volatile int peakThreads;
+  private volatile long peakHeapBytes;
+
+  @Test
+  public void allSessionsComplete() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    GroovyShellService service = new GroovyShellService(port);
+    service.setHost("127.0.0.1");
+    service.setDisableImportCompletions(true);
+    service.setMaxSessions(sessions);
+    service.start();
+
+    SshClient client = SshClient.setUpDefaultClient();
+    client.start();
+
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    sampler.scheduleAtFixedRate(this::sample, 0, 100, MILLISECONDS);
+    ExecutorService executor = Executors.newFixedThreadPool(sessions);
+    long startedAt = System.nanoTime();
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < sessions; i++) {
+        int session = i;
+        futures.add(executor.submit(() -> {
+          start.await();
+          runSession(client, session);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        try {
+          future.get(TIMEOUT_SECONDS, SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+          failures.incrementAndGet();
+          Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+          System.err.println("Session failed: " + cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      sampler.shutdownNow();
+      client.stop();
+      service.destroy();
+    }
+    report(System.nanoTime() - startedAt);
+    assertEquals("Failed sessions", 0, failures.get());
+  }
+
+  private void runSession(SshClient client, int session) throws Exception {
+    long connectedAt = System.nanoTime();
+    try (ClientSession ssh = client.connect("load", "127.0.0.1", port)
+        .verify(TIMEOUT_SECONDS, SECONDS).getSession()) {
+      ssh.auth().verify(TIMEOUT_SECONDS, SECONDS);
+      try (ChannelShell channel = ssh.createShellChannel()) {
+        PipedOutputStream in = new PipedOutputStream();
+        SessionOutput out = new SessionOutput();
+        channel.setPtyType("xterm");
+        channel.setIn(new PipedInputStream(in));
+        channel.setOut(out);
+        channel.setErr(out);
+        channel.open().verify(TIMEOUT_SECONDS, SECONDS);
+
+        out.awaitPrompt();
+        timeToPrompt.record(NANOSECONDS.toMicros(System.nanoTime() - connectedAt));
+
+        for (int i = 0; i < commands; i++) {
+          String script = SCRIPTS.get((session + i) % SCRIPTS.size());
+          long sentAt = System.nanoTime();
+          in.write((script + "\n").getBytes(UTF_8));
+          in.flush();
+          long bytes = out.awaitPrompt();
+          long micros = NANOSECONDS.toMicros(System.nanoTime() - sentAt);
+          roundTrip.record(micros);
+          throughput.record(bytes * 1_000_000 / Math.max(micros, 1));
+          outputBytes.addAndGet(bytes);
+        }
+        in.write(":exit\n".getBytes(UTF_8));
+        in.flush();
+        channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED),
+            SECONDS.toMillis(TIMEOUT_SECONDS));
+      }
+    }
+  }
+
+  private void sample() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    peakThreads = Math.max(peakThreads, threads.getThreadCount());
+    peakHeapBytes = Math.max(peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+  }
+
+  private void report(long elapsedNanos) {
+    long seconds = Math.max(NANOSECONDS.toSeconds(elapsedNanos), 1);
+    System.out.printf("sessions: %d, commands per session: %d, failed sessions: %d%n",
+        sessions, commands, failures.get());
+    report("time to prompt, ms", timeToPrompt, 1000);
+    report("eval round trip, ms", roundTrip, 1000);
+    report("output throughput, KiB/s", throughput, 1024);
+    System.out.printf("total output: %d KiB in %d s%n", outputBytes.get() / 1024, seconds);
+    System.out.printf("peak threads: %d, peak heap used: %d MiB%n", peakThreads,
+        peakHeapBytes / 1024 / 1024);
+  }
+
+  private static void report(String name, LatencyHistogram histogram, long scale) {
+    System.out.printf("%-26s p50: %8.1f  p99: %8.1f  p999: %8.1f  (n=%d)%n", name + ":",
+        histogram.getValueAtPercentile(50) / (double) scale,
+        histogram.getValueAtPercentile(99) / (double) scale,
+        histogram.getValueAtPercentile(99.9) / (double) scale,
+        histogram.getCount());
+  }
+
+  /**
+   * Session output waiting for shell prompts. Terminal escape sequences are stripped before
+   * matching.
+   */
+  private static class SessionOutput extends OutputStream {
+
+    private final StringBuilder pending = new StringBuilder();
+    private long pendingBytes;
+
+    @Override
+    public synchronized void write(int b) {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      pending.append(new String(b, off, len, UTF_8));
+      pendingBytes += len;
+      notifyAll();
+    }
+
+    /**
+     * Waits until the next prompt appears in the output.
+     *
+     * @return number of bytes received before the prompt
+     */
+    synchronized long awaitPrompt() throws InterruptedException, IOException {
+      long deadline = System.nanoTime() + SECONDS.toNanos(TIMEOUT_SECONDS);
+      while (true) {
+        String text = ANSI_ESCAPE.matcher(pending).replaceAll("");
+        if (PROMPT.matcher(text).find()) {
+          long bytes = pendingBytes;
+          pending.setLength(0);
+          pendingBytes = 0;
+          return bytes;
+        }
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          throw new IOException("Prompt is not received in " + TIMEOUT_SECONDS + "s");
+        }
+        NANOSECONDS.timedWait(this, left);
+      }
+    }
+  }
+}
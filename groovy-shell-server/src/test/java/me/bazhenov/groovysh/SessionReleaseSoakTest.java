@@ -0,0 +1,138 @@
+package me.bazhenov.groovysh;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.session.ClientSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.EnumSet.of;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens thousands of shell sessions, each of them compiling classes and retaining a megabyte of
+ * heap from a static field, and checks that class loaders of the sessions are collected once the
+ * sessions are closed.
+ * <p>
+ * Introspection caches of Groovy and JDK keep classes softly reachable, so the test should be run
+ * with <code>-XX:SoftRefLRUPolicyMSPerMB=0</code>, which is done by <code>soak-test</code> profile.
+ * It is not a part of the regular build.
+ */
+public class SessionReleaseSoakTest {
+
+  private static final int SESSIONS = Integer.getInteger("soakTest.sessions", 2000);
+  private static final int CONNECTIONS = 8;
+  private static final long COLLECTION_TIMEOUT_MILLIS = 60_000;
+  private static final String SCRIPT =
+      "class Foo { static byte[] data = new byte[1 << 20] }; new Foo()\n"
+          + "loaders << new java.lang.ref.WeakReference(Foo.classLoader)"
+          + " << new java.lang.ref.WeakReference(Foo.classLoader.parent)\n"
+          + "def twice = { it * 2 }; twice(21)\n"
+          + ":record start " + new File(System.getProperty("java.io.tmpdir"), "soak-record.txt")
+          + "\n"
+          + "println 'done'\n"
+          + ":exit\n";
+
+  private final Queue<WeakReference<ClassLoader>> loaders = new ConcurrentLinkedQueue<>();
+  private GroovyShellService service;
+  private SshClient client;
+  private int port;
+
+  @Before
+  public void setUp() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    service = new GroovyShellService(port);
+    service.setDisableImportCompletions(true);
+    service.addBinding("loaders", loaders);
+    service.start();
+    client = SshClient.setUpDefaultClient();
+    client.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.stop();
+    service.destroy();
+  }
+
+  @Test
+  public void releasedSessionsDoNotRetainClassLoaders() throws Exception {
+    runSessions(SESSIONS);
+    assertEquals(SESSIONS * 2, loaders.size());
+
+    long deadline = System.currentTimeMillis() + COLLECTION_TIMEOUT_MILLIS;
+    while (reachable() > 0 && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    assertEquals("Class loaders of closed sessions are still reachable", 0, reachable());
+  }
+
+  private void runSessions(int sessions) throws Exception {
+    AtomicInteger remaining = new AtomicInteger(sessions);
+    ExecutorService executor = newFixedThreadPool(CONNECTIONS);
+    try {
+      List<Future<?>> connections = new ArrayList<>();
+      for (int i = 0; i < CONNECTIONS; i++) {
+        connections.add(executor.submit(() -> {
+          try (ClientSession session = client.connect("soak", "127.0.0.1", port)
+              .verify(30_000).getSession()) {
+            session.auth().verify(30_000);
+            while (remaining.getAndDecrement() > 0) {
+              runShell(session);
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> connection : connections) {
+        connection.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void runShell(ClientSession session) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ChannelShell channel = session.createShellChannel()) {
+      channel.setIn(new ByteArrayInputStream(SCRIPT.getBytes(UTF_8)));
+      channel.setOut(out);
+      channel.setErr(out);
+      channel.open().verify(30_000);
+      channel.waitFor(of(ClientChannelEvent.CLOSED), 30_000);
+    }
+    assertTrue(out.toString("UTF-8"), out.toString("UTF-8").contains("done"));
+  }
+
+  private int reachable() {
+    int reachable = 0;
+    for (WeakReference<ClassLoader> loader : loaders) {
+      if (loader.get() != null) {
+        reachable++;
+      }
+    }
+    return reachable;
+  }
+}
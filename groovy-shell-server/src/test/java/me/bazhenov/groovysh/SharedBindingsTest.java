@@ -0,0 +1,52 @@
+package me.bazhenov.groovysh;
+
+import groovy.lang.Binding;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SharedBindingsTest {
+
+  private final GroovyShellService service = new GroovyShellService(6789);
+
+  @Test
+  public void bindingsAreLiveView() {
+    Binding session = new LayeredBinding(service.getBindings());
+    service.getBindings().put("foo", 1);
+
+    assertEquals(1, session.getVariable("foo"));
+    assertEquals(1, service.getBindings().get("foo"));
+
+    service.getBindings().remove("foo");
+    assertFalse(session.hasVariable("foo"));
+  }
+
+  @Test
+  public void givenMapIsNotCopied() {
+    Map<String, Object> bindings = new HashMap<>();
+    service.setBindings(bindings);
+    Binding session = new LayeredBinding(service.getBindings());
+
+    bindings.put("foo", 1);
+    service.addBinding("bar", 2);
+
+    assertEquals(1, session.getVariable("foo"));
+    assertEquals(2, bindings.get("bar"));
+  }
+
+  @Test
+  public void sessionVariablesDoNotLeakToSharedScope() {
+    service.addBinding("foo", 1);
+    Binding session = new LayeredBinding(service.getBindings());
+
+    session.setVariable("foo", 2);
+    session.setVariable("bar", 3);
+
+    assertEquals(2, session.getVariable("foo"));
+    assertEquals(1, service.getBindings().get("foo"));
+    assertFalse(service.getBindings().containsKey("bar"));
+  }
+}
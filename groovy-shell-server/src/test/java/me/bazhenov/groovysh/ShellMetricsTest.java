@@ -0,0 +1,42 @@
+package me.bazhenov.groovysh;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static me.bazhenov.groovysh.ShellMetrics.OUTPUT_RATE_WINDOW_SECONDS;
+import static org.junit.Assert.assertEquals;
+
+public class ShellMetricsTest {
+
+  private static final long START = SECONDS.toNanos(1000);
+
+  private final ShellMetrics metrics = new ShellMetrics();
+
+  @Test
+  public void outputRateIsAveragedOverCompleteSeconds() {
+    metrics.recordOutputRate(1000, START);
+    metrics.recordOutputRate(1000, START + SECONDS.toNanos(1));
+
+    assertEquals(1000. / OUTPUT_RATE_WINDOW_SECONDS,
+        metrics.getOutputBytesPerSecond(START + SECONDS.toNanos(1)), 0);
+    assertEquals(2000. / OUTPUT_RATE_WINDOW_SECONDS,
+        metrics.getOutputBytesPerSecond(START + SECONDS.toNanos(2)), 0);
+  }
+
+  @Test
+  public void outputRateDoesNotDependOnReads() {
+    metrics.recordOutputRate(1000, START);
+    long now = START + SECONDS.toNanos(1);
+
+    assertEquals(metrics.getOutputBytesPerSecond(now), metrics.getOutputBytesPerSecond(now), 0);
+  }
+
+  @Test
+  public void outputOutsideOfWindowIsForgotten() {
+    metrics.recordOutputRate(1000, START);
+    metrics.recordOutputRate(500, START + SECONDS.toNanos(OUTPUT_RATE_WINDOW_SECONDS + 1));
+
+    long now = START + SECONDS.toNanos(OUTPUT_RATE_WINDOW_SECONDS + 2);
+    assertEquals(500. / OUTPUT_RATE_WINDOW_SECONDS, metrics.getOutputBytesPerSecond(now), 0);
+  }
+}
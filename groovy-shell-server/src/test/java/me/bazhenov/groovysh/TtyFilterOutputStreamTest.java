@@ -0,0 +1,133 @@
+package me.bazhenov.groovysh;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+public class TtyFilterOutputStreamTest {
+
+  private static final int PAYLOAD_SIZE = 64 * 1024;
+
+  @Test
+  public void translatesLineFeeds() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TtyFilterOutputStream stream = newStream(out);
+
+    stream.write("xxa\nb\n\nc".getBytes(US_ASCII), 2, 6);
+    stream.write('\n');
+
+    assertEquals("a\r\nb\r\n\r\nc\r\n", new String(out.toByteArray(), US_ASCII));
+  }
+
+  @Test
+  public void translatesPayloadsLongerThanBuffer() throws IOException {
+    byte[] payload = payload(20000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    newStream(out).write(payload, 0, payload.length);
+
+    String expected = new String(payload, US_ASCII).replace("\n", "\r\n");
+    assertEquals(expected, new String(out.toByteArray(), US_ASCII));
+  }
+
+  @Test
+  public void writesBlocksDownstream() throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    byte[] payload = payload(PAYLOAD_SIZE);
+    newStream(out).write(payload, 0, payload.length);
+
+    // Every byte used to be a separate downstream write
+    assertTrue("Downstream writes: " + out.writes, out.writes <= 10);
+  }
+
+  @Test
+  public void isFasterThanBytewiseTranslation() throws IOException {
+    byte[] payload = payload(PAYLOAD_SIZE);
+    // Like SSH channel stream, downstream synchronizes and copies on every write
+    ByteArrayOutputStream blockwiseOut = new ByteArrayOutputStream(PAYLOAD_SIZE * 2);
+    ByteArrayOutputStream bytewiseOut = new ByteArrayOutputStream(PAYLOAD_SIZE * 2);
+    OutputStream blockwise = newStream(blockwiseOut);
+    OutputStream bytewise = new BytewiseOutputStream(bytewiseOut);
+
+    long blockwiseNanos = Long.MAX_VALUE;
+    long bytewiseNanos = Long.MAX_VALUE;
+    // Best of several rounds, so JIT warmup and GC pauses don't decide the outcome
+    for (int round = 0; round < 20; round++) {
+      blockwiseOut.reset();
+      blockwiseNanos = Math.min(blockwiseNanos, measure(blockwise, payload));
+      bytewiseOut.reset();
+      bytewiseNanos = Math.min(bytewiseNanos, measure(bytewise, payload));
+    }
+
+    assertTrue("Block-wise " + blockwiseNanos + "ns, byte-wise " + bytewiseNanos + "ns",
+        blockwiseNanos * 2 < bytewiseNanos);
+  }
+
+  private static long measure(OutputStream stream, byte[] payload) throws IOException {
+    long startedAt = System.nanoTime();
+    stream.write(payload, 0, payload.length);
+    return System.nanoTime() - startedAt;
+  }
+
+  private static TtyFilterOutputStream newStream(OutputStream out) {
+    OutputLimiter limiter = new OutputLimiter(0, 0, new SessionStats(null, new ShellMetrics()));
+    return new TtyFilterOutputStream(out, new AtomicBoolean(true), limiter);
+  }
+
+  /**
+   * @return text of 40 characters long lines
+   */
+  private static byte[] payload(int size) {
+    byte[] result = new byte[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = (byte) (i % 40 == 39 ? '\n' : 'a' + i % 26);
+    }
+    return result;
+  }
+
+  /**
+   * Translation as it was done before, each byte is written downstream separately.
+   */
+  private static class BytewiseOutputStream extends FilterOutputStream {
+
+    BytewiseOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      if (c == '\n') {
+        super.write('\r');
+      }
+      super.write(c);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (int i = off; i < off + len; i++) {
+        write(b[i]);
+      }
+    }
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+
+    private int writes;
+
+    @Override
+    public void write(int b) {
+      writes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      writes++;
+    }
+  }
+}